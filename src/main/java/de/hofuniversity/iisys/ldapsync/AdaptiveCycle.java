@@ -0,0 +1,106 @@
+package de.hofuniversity.iisys.ldapsync;
+
+/**
+ * Computes the interval until the next synchronization based on the change
+ * rate observed in the preceding full synchronizations. Intervals are
+ * lengthened if hardly anything changes and shortened if many changes are
+ * detected, always staying within the configured bounds and leaving enough
+ * time between cycles compared to the duration of a cycle.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class AdaptiveCycle
+{
+    // number of changes a single cycle should ideally handle
+    private static final double TARGET_CHANGES = 10;
+
+    // maximum factor by which an interval is changed at once
+    private static final double MAX_STEP = 2;
+
+    // minimum ratio of interval to the duration of a cycle
+    private static final long MIN_DUTY_RATIO = 4;
+
+    private final long fMinInterval, fMaxInterval;
+
+    private long fInterval;
+    private long fLastSync;
+
+    /**
+     * Creates an adaptive cycle whose intervals lie within the given bounds,
+     * starting with the minimum interval. Throws an IllegalArgumentException
+     * if the minimum is not positive or larger than the maximum.
+     * 
+     * @param minInterval
+     *            minimum interval in milliseconds
+     * @param maxInterval
+     *            maximum interval in milliseconds
+     */
+    public AdaptiveCycle(long minInterval, long maxInterval)
+    {
+        if (minInterval <= 0 || minInterval > maxInterval)
+        {
+            throw new IllegalArgumentException("invalid interval bounds: "
+                + minInterval + " - " + maxInterval);
+        }
+
+        fMinInterval = minInterval;
+        fMaxInterval = maxInterval;
+        fInterval = minInterval;
+    }
+
+    /**
+     * Records the result of a completed full synchronization and adapts the
+     * interval accordingly.
+     * 
+     * @param changes
+     *            number of changes detected and written in the cycle
+     * @param duration
+     *            duration of the cycle in milliseconds
+     */
+    public void update(int changes, long duration)
+    {
+        final long now = System.currentTimeMillis();
+
+        double factor = MAX_STEP;
+        if (changes > 0)
+        {
+            /*
+             * extrapolate the observed change rate to the current interval,
+             * since the previous cycle may have been forced early or late
+             */
+            double expected = changes;
+            if (fLastSync > 0 && now > fLastSync)
+            {
+                expected = changes * (double) fInterval / (now - fLastSync);
+            }
+
+            factor = TARGET_CHANGES / expected;
+            factor = Math.max(1 / MAX_STEP, Math.min(MAX_STEP, factor));
+        }
+
+        long interval = (long) (fInterval * factor);
+
+        // leave enough idle time compared to the cycle's duration
+        interval = Math.max(interval, duration * MIN_DUTY_RATIO);
+
+        fInterval = Math.max(fMinInterval, Math.min(fMaxInterval, interval));
+        fLastSync = now;
+    }
+
+    /**
+     * @return time of the last recorded synchronization or 0
+     */
+    public long getLastSync()
+    {
+        return fLastSync;
+    }
+
+    /**
+     * @return current interval between synchronizations in milliseconds
+     */
+    public long getInterval()
+    {
+        return fInterval;
+    }
+}
@@ -34,6 +34,12 @@ public interface ILdapConnector
      */
     public boolean isConnected();
 
+    /**
+     * @return whether creations and updates are skipped since the connector
+     *         is read-only
+     */
+    public boolean isReadOnly();
+
     /**
      * Queries the LDAP directory service for the given name of a context or
      * object which may not be null.
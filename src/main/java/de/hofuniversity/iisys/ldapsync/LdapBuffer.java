@@ -1,12 +1,16 @@
 package de.hofuniversity.iisys.ldapsync;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TimeZone;
 
 import javax.naming.NamingEnumeration;
 import javax.naming.directory.Attribute;
@@ -20,6 +24,9 @@ import javax.naming.directory.SearchResult;
 import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
 import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
 import de.hofuniversity.iisys.ldapsync.model.SimpleLdapUser;
+import de.hofuniversity.iisys.ldapsync.util.Fingerprint;
+import de.hofuniversity.iisys.ldapsync.util.StateStore;
+import de.hofuniversity.iisys.ldapsync.util.WriteThrottle;
 
 /**
  * Class that holds a copy of the current LDAP data that can be modified by
@@ -31,12 +38,23 @@ import de.hofuniversity.iisys.ldapsync.model.SimpleLdapUser;
  */
 public class LdapBuffer
 {
+    private static final String CURSOR_KEY = "modifications";
+
+    /**
+     * Operational attribute containing the time an entry was last modified.
+     */
+    public static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
     private final ILdapConnector fLdap;
     private final ILdapUserFactory fUserFactory;
+    private final StateStore fState;
 
     private final Map<String, Map<String, ModificationItem>> fModifications;
     private final Map<String, ILdapUser> fLdapUsers, fNewUsers, fAllUsers;
-    private final Set<String> fDeletedUsers;
+    private final Set<String> fDeletedUsers, fUnwrittenUsers;
+    private final Map<String, String> fFingerprints;
+
+    private WriteThrottle fThrottle;
 
     /**
      * Creates an empty buffer that can hold changes to be written to an LDAP
@@ -48,6 +66,24 @@ public class LdapBuffer
      *            factory to use for user creation
      */
     public LdapBuffer(ILdapConnector ldap, ILdapUserFactory factory)
+    {
+        this(ldap, factory, new StateStore(null));
+    }
+
+    /**
+     * Creates an empty buffer that can hold changes to be written to an LDAP
+     * directory service, keeping state between cycles in the given store.
+     * Throws a NullPointerException if any argument is null.
+     * 
+     * @param ldap
+     *            LDAP connector to use for writing changes
+     * @param factory
+     *            factory to use for user creation
+     * @param state
+     *            store for state between cycles
+     */
+    public LdapBuffer(ILdapConnector ldap, ILdapUserFactory factory,
+        StateStore state)
     {
         if (ldap == null)
         {
@@ -57,15 +93,49 @@ public class LdapBuffer
         {
             throw new NullPointerException("user factory was null");
         }
+        if (state == null)
+        {
+            throw new NullPointerException("state store was null");
+        }
 
         fLdap = ldap;
         fUserFactory = factory;
+        fState = state;
 
         fModifications = new HashMap<String, Map<String, ModificationItem>>();
         fLdapUsers = new HashMap<String, ILdapUser>();
         fNewUsers = new HashMap<String, ILdapUser>();
         fAllUsers = new HashMap<String, ILdapUser>();
         fDeletedUsers = new HashSet<String>();
+        fUnwrittenUsers = new HashSet<String>();
+        fFingerprints = new HashMap<String, String>();
+
+        fThrottle = new WriteThrottle(0, 0);
+    }
+
+    /**
+     * @return throttle limiting write operations to LDAP
+     */
+    public WriteThrottle getThrottle()
+    {
+        return fThrottle;
+    }
+
+    /**
+     * Sets the throttle limiting write operations to LDAP. Throws a
+     * NullPointerException if the given throttle is null.
+     * 
+     * @param throttle
+     *            throttle to use
+     */
+    public void setThrottle(WriteThrottle throttle)
+    {
+        if (throttle == null)
+        {
+            throw new NullPointerException("throttle was null");
+        }
+
+        fThrottle = throttle;
     }
 
     /**
@@ -84,6 +154,9 @@ public class LdapBuffer
         fDeletedUsers.clear();
         fModifications.clear();
         fLdapUsers.clear();
+        fAllUsers.clear();
+        fFingerprints.clear();
+        fUnwrittenUsers.clear();
 
         /*
          * read and copy all users and their attributes from the result to
@@ -144,6 +217,7 @@ public class LdapBuffer
 
                 // add to map
                 fLdapUsers.put(name, new SimpleLdapUser(name, localAtts));
+                fFingerprints.put(name, getFingerprint(localAtts));
             }
 
             fAllUsers.putAll(fLdapUsers);
@@ -181,6 +255,89 @@ public class LdapBuffer
         return user;
     }
 
+    private String getFingerprint(Attributes atts) throws Exception
+    {
+        final Fingerprint print = new Fingerprint();
+
+        // attributes in a stable order
+        final List<String> ids = new ArrayList<String>();
+        NamingEnumeration<String> idEnum = atts.getIDs();
+        while (idEnum.hasMore())
+        {
+            ids.add(idEnum.next());
+        }
+        Collections.sort(ids);
+
+        NamingEnumeration<?> vals = null;
+        for (String id : ids)
+        {
+            print.update(id);
+
+            vals = atts.get(id).getAll();
+            while (vals.hasMore())
+            {
+                print.update(vals.next());
+            }
+        }
+
+        return print.toString();
+    }
+
+    /**
+     * Returns a fingerprint of the attributes the user with the given name had
+     * when the data was read from LDAP, which changes whenever any of the
+     * entry's values change between cycles. Returns null for unknown and newly
+     * created users.
+     * 
+     * @param name
+     *            name of the user
+     * @return fingerprint of the user's entry or null
+     */
+    public String getFingerprint(String name)
+    {
+        return fFingerprints.get(name);
+    }
+
+    /**
+     * Returns the time the entry of the user with the given name was last
+     * modified in LDAP according to its operational "modifyTimestamp"
+     * attribute, or -1 if it is not known.
+     * 
+     * @param name
+     *            name of the user
+     * @return time of the last modification in milliseconds or -1
+     */
+    public long getLastModified(String name)
+    {
+        long time = -1;
+
+        ILdapUser user = fLdapUsers.get(name);
+        if (user != null)
+        {
+            List<Object> values = user.getAttributeValues(MODIFY_TIMESTAMP);
+
+            if (values != null && !values.isEmpty())
+            {
+                // generalized time, i.e. "20140312093055Z"
+                String value = values.get(0).toString();
+
+                try
+                {
+                    SimpleDateFormat format = new SimpleDateFormat(
+                        "yyyyMMddHHmmss");
+                    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+                    time = format.parse(value.substring(0, 14)).getTime();
+                } catch (Exception e)
+                {
+                    System.err.println("invalid " + MODIFY_TIMESTAMP + ": "
+                        + value);
+                }
+            }
+        }
+
+        return time;
+    }
+
     /**
      * Returns a map of all currently available users including existing LDAP
      * users as well as newly created users. Users that have already been
@@ -669,6 +826,29 @@ public class LdapBuffer
         fAllUsers.remove(name);
     }
 
+    /**
+     * @return number of users that are created, deleted or modified
+     */
+    public int getChangedUserCount()
+    {
+        return fNewUsers.size() + fDeletedUsers.size() + fModifications.size();
+    }
+
+    /**
+     * @return number of attribute modifications queued for existing users
+     */
+    public int getModificationCount()
+    {
+        int count = 0;
+
+        for (Map<String, ModificationItem> mods : fModifications.values())
+        {
+            count += mods.size();
+        }
+
+        return count;
+    }
+
     /**
      * @return whether there are changes in the buffer that can be written
      */
@@ -687,40 +867,201 @@ public class LdapBuffer
      *             if an Exception occurs during writing
      */
     public void writeToLdap() throws Exception
+    {
+        writeToLdap(0, false);
+    }
+
+    /**
+     * Writes changes in the buffer to the already connected LDAP directory
+     * service until the given deadline is reached. The connection is not
+     * closed after writing. Changes are written in this order: user deletions,
+     * user creations, attribute updates. Writing stops at a user boundary once
+     * the deadline has passed. Attribute updates are written in the order of
+     * user names. Full synchronizations with a deadline continue after the
+     * last user written by the previous one, other writes leave that position
+     * untouched.
+     * 
+     * All changes that were not written, because the deadline passed, writing
+     * failed or the connector is read-only, are discarded. The affected users
+     * are reported by isWritten(), so that end points keep their state for
+     * them and recompute the changes in the next cycle.
+     * 
+     * @param deadline
+     *            time in milliseconds at which to stop or 0 for no limit
+     * @param full
+     *            whether the changes stem from a full synchronization
+     * @throws Exception
+     *             if an Exception occurs during writing
+     */
+    public void writeToLdap(long deadline, boolean full) throws Exception
+    {
+        // users are removed once their changes are written
+        fUnwrittenUsers.clear();
+        fUnwrittenUsers.addAll(fDeletedUsers);
+        fUnwrittenUsers.addAll(fNewUsers.keySet());
+        fUnwrittenUsers.addAll(fModifications.keySet());
+
+        try
+        {
+            write(deadline, full && deadline > 0);
+        } finally
+        {
+            fDeletedUsers.clear();
+            fNewUsers.clear();
+            fModifications.clear();
+            fState.save();
+        }
+    }
+
+    private void write(long deadline, boolean resume) throws Exception
     {
         // delete users
         for (String name : fDeletedUsers)
         {
+            if (isExpired(deadline))
+            {
+                return;
+            }
+
+            fThrottle.acquire(1, name.length());
             fLdap.remove(name);
+            fUnwrittenUsers.remove(name);
         }
-        fDeletedUsers.clear();
 
         // create new users
         for (Entry<String, ILdapUser> userE : fNewUsers.entrySet())
         {
+            if (isExpired(deadline))
+            {
+                return;
+            }
+
+            if (fThrottle.isLimited())
+            {
+                fThrottle.acquire(1, estimateSize(userE.getValue()
+                    .getAttributes().getAll()));
+            }
             fLdap.create(userE.getKey(), userE.getValue());
+            setWritten(userE.getKey());
         }
-        fNewUsers.clear();
 
         // update attributes of existing users
+        final String[] names = fModifications.keySet().toArray(
+            new String[fModifications.size()]);
+        Arrays.sort(names);
+
+        // continue after the last user written in a previous cycle
+        int offset = 0;
+        final String cursor = resume ? fState.get(CURSOR_KEY) : null;
+        if (cursor != null)
+        {
+            offset = Arrays.binarySearch(names, cursor);
+            offset = offset < 0 ? -offset - 1 : offset + 1;
+        }
+
         String name = null;
         List<ModificationItem> modList = null;
         ModificationItem[] modArr = null;
-        for (Entry<String, Map<String, ModificationItem>> entry : fModifications
-            .entrySet())
+        for (int i = 0; i < names.length; ++i)
         {
-            name = entry.getKey();
-            modList = new ArrayList<ModificationItem>();
-
-            for (Entry<String, ModificationItem> mod : entry.getValue()
-                .entrySet())
+            if (isExpired(deadline))
             {
-                modList.add(mod.getValue());
+                System.out.println("time budget exhausted after " + i
+                    + " of " + names.length + " updates");
+                return;
             }
 
+            name = names[(offset + i) % names.length];
+            modList = new ArrayList<ModificationItem>(fModifications.get(name)
+                .values());
+
             modArr = new ModificationItem[modList.size()];
+            if (fThrottle.isLimited())
+            {
+                long size = name.length();
+                for (ModificationItem mod : modList)
+                {
+                    size += estimateSize(mod.getAttribute());
+                }
+                fThrottle.acquire(1, size);
+            }
             fLdap.update(name, modList.toArray(modArr));
+            setWritten(name);
+
+            // remember progress in case the next update exceeds the budget
+            if (resume)
+            {
+                fState.put(CURSOR_KEY, name);
+            }
         }
-        fModifications.clear();
+
+        // all updates written
+        if (resume)
+        {
+            fState.remove(CURSOR_KEY);
+        }
+    }
+
+    private void setWritten(String name)
+    {
+        // creations and updates are skipped by read-only connectors
+        if (!fLdap.isReadOnly())
+        {
+            fUnwrittenUsers.remove(name);
+        }
+    }
+
+    /**
+     * Returns whether all changes queued for the user with the given name
+     * were written by the last call to writeToLdap(), which is the case if
+     * there were none. Name may not be null.
+     * 
+     * @param name
+     *            UID of the user
+     * @return whether all of the user's changes were written
+     */
+    public boolean isWritten(String name)
+    {
+        return !fUnwrittenUsers.contains(name);
+    }
+
+    private long estimateSize(NamingEnumeration<? extends Attribute> atts)
+        throws Exception
+    {
+        long size = 0;
+
+        while (atts.hasMore())
+        {
+            size += estimateSize(atts.next());
+        }
+
+        return size;
+    }
+
+    private long estimateSize(Attribute att) throws Exception
+    {
+        long size = att.getID().length();
+
+        NamingEnumeration<?> vals = att.getAll();
+        Object val = null;
+        while (vals.hasMore())
+        {
+            val = vals.next();
+
+            if (val instanceof byte[])
+            {
+                size += ((byte[]) val).length;
+            } else if (val != null)
+            {
+                size += val.toString().length();
+            }
+        }
+
+        return size;
+    }
+
+    private boolean isExpired(long deadline)
+    {
+        return deadline > 0 && System.currentTimeMillis() >= deadline;
     }
 }
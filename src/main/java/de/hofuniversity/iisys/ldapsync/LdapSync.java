@@ -4,6 +4,8 @@ import de.hofuniversity.iisys.ldapsync.config.SyncConfig;
 import de.hofuniversity.iisys.ldapsync.config.XMLConfigReader;
 import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
 import de.hofuniversity.iisys.ldapsync.model.LdapUserFactory;
+import de.hofuniversity.iisys.ldapsync.util.StateStore;
+import de.hofuniversity.iisys.ldapsync.util.WriteThrottle;
 
 /**
  * Startup class for the LDAP synchronization program for Apache Shindig and
@@ -59,7 +61,10 @@ public class LdapSync
         ILdapUserFactory userFactory = new LdapUserFactory(config);
 
         // create buffer
-        LdapBuffer buffer = new LdapBuffer(conn, userFactory);
+        LdapBuffer buffer = new LdapBuffer(conn, userFactory, StateStore.open(
+            config.getStateFolder(), "ldap-cursor"));
+        buffer.setThrottle(new WriteThrottle(config.getOpsPerSec(), config
+            .getBytesPerSec()));
 
         // create end point factory
         ISyncEndpointFactory endPointFactory = new SyncEndpointFactory(config,
@@ -61,7 +61,11 @@ public class SimpleLdapConnector implements ILdapConnector
         fReadOnly = config.getReadOnly();
 
         fCtrl = new SearchControls();
-        
+
+        // operational attributes are only returned on request
+        fCtrl.setReturningAttributes(new String[] { "*",
+            LdapBuffer.MODIFY_TIMESTAMP });
+
         if(config.getSubtreeSearch())
         {
             fCtrl.setSearchScope(SearchControls.SUBTREE_SCOPE);
@@ -105,6 +109,11 @@ public class SimpleLdapConnector implements ILdapConnector
         return fConnected;
     }
 
+    public boolean isReadOnly()
+    {
+        return fReadOnly;
+    }
+
     @SuppressWarnings("rawtypes")
     public NamingEnumeration nameQuery(String name) throws Exception
     {
@@ -0,0 +1,98 @@
+package de.hofuniversity.iisys.ldapsync;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Description of a unit of synchronization work, either a full
+ * synchronization of all users or a targeted synchronization of a set of
+ * users identified by their UIDs.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class SyncRequest
+{
+    private final Set<String> fUsers;
+
+    private long fDeadline;
+
+    /**
+     * Creates a request for a full synchronization.
+     */
+    public SyncRequest()
+    {
+        fUsers = null;
+    }
+
+    /**
+     * Creates a request for a targeted synchronization of the users with the
+     * given UIDs. Throws a NullPointerException if the given set is null.
+     * 
+     * @param users
+     *            UIDs of the users to synchronize
+     */
+    public SyncRequest(Set<String> users)
+    {
+        if (users == null)
+        {
+            throw new NullPointerException("set of users was null");
+        }
+
+        fUsers = Collections.unmodifiableSet(users);
+    }
+
+    /**
+     * @return whether all users are to be synchronized
+     */
+    public boolean isFull()
+    {
+        return fUsers == null;
+    }
+
+    /**
+     * @return UIDs of the users to synchronize or null for a full request
+     */
+    public Set<String> getUsers()
+    {
+        return fUsers;
+    }
+
+    /**
+     * @return time in milliseconds at which work should stop or 0
+     */
+    public long getDeadline()
+    {
+        return fDeadline;
+    }
+
+    /**
+     * @param deadline
+     *            time in milliseconds at which work should stop or 0 for no
+     *            limit
+     */
+    public void setDeadline(long deadline)
+    {
+        fDeadline = deadline;
+    }
+
+    /**
+     * @return whether the time budget for this request has run out
+     */
+    public boolean isExpired()
+    {
+        return fDeadline > 0 && System.currentTimeMillis() >= fDeadline;
+    }
+
+    /**
+     * Checks whether the user with the given UID is covered by this request.
+     * 
+     * @param name
+     *            UID of the user in question
+     * @return whether the user is to be synchronized
+     */
+    public boolean includes(String name)
+    {
+        return fUsers == null || fUsers.contains(name);
+    }
+}
@@ -0,0 +1,211 @@
+package de.hofuniversity.iisys.ldapsync;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Debouncing work queue in front of the scheduler that coalesces requests for
+ * forced and targeted synchronizations. All pending full synchronization
+ * requests collapse into a single run, requests for individual users are
+ * merged into one set and are subsumed by a pending full synchronization.
+ * Pending work is only released once no new requests have arrived for the
+ * configured quiet period, but never later than a fixed multiple of it after
+ * the first pending request, so that a continuous flood of requests can not
+ * delay synchronization indefinitely.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class SyncRequestQueue
+{
+    private static final int MAX_DELAY_FACTOR = 10;
+
+    private final long fQuietPeriod;
+    private final Set<String> fUsers;
+
+    private boolean fFullPending;
+    private long fFirstRequest, fLastRequest;
+    private boolean fWoken;
+
+    /**
+     * Creates an empty request queue that batches requests arriving within the
+     * given quiet period of each other. Negative periods are treated as zero.
+     * 
+     * @param quietPeriod
+     *            quiet period in milliseconds
+     */
+    public SyncRequestQueue(long quietPeriod)
+    {
+        fQuietPeriod = Math.max(0, quietPeriod);
+        fUsers = new HashSet<String>();
+    }
+
+    /**
+     * Queues a full synchronization, replacing all pending targeted requests.
+     */
+    public synchronized void requestFullSync()
+    {
+        fFullPending = true;
+        fUsers.clear();
+        touch();
+    }
+
+    /**
+     * Queues a targeted synchronization of the user with the given UID. The
+     * request is ignored if a full synchronization is already pending. Name
+     * may not be null.
+     * 
+     * @param name
+     *            UID of the user to synchronize
+     */
+    public synchronized void requestUserSync(String name)
+    {
+        if (name == null)
+        {
+            throw new NullPointerException("user name was null");
+        }
+
+        if (!fFullPending)
+        {
+            fUsers.add(name);
+        }
+        touch();
+    }
+
+    /**
+     * Queues a targeted synchronization of the users with the given UIDs. The
+     * request is ignored if a full synchronization is already pending.
+     * Collection may not be null.
+     * 
+     * @param names
+     *            UIDs of the users to synchronize
+     */
+    public synchronized void requestUserSync(Collection<String> names)
+    {
+        if (names == null)
+        {
+            throw new NullPointerException(
+                "collection of user names was null");
+        }
+
+        if (!fFullPending)
+        {
+            fUsers.addAll(names);
+        }
+        touch();
+    }
+
+    private void touch()
+    {
+        if (!hasPending())
+        {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        // first request of a new batch
+        if (fFirstRequest == 0)
+        {
+            fFirstRequest = now;
+        }
+        fLastRequest = now;
+
+        notifyAll();
+    }
+
+    /**
+     * @return whether there is any queued work
+     */
+    public synchronized boolean hasPending()
+    {
+        return fFullPending || !fUsers.isEmpty();
+    }
+
+    /**
+     * Waits for the next batch of work, at most for the given amount of time.
+     * Returns the coalesced request once the quiet period has passed since the
+     * latest request. Returns null if the time ran out or wakeUp() was called
+     * since the last call without any work being released.
+     * 
+     * @param timeout
+     *            maximum time to wait in milliseconds
+     * @return coalesced request or null
+     * @throws InterruptedException
+     *             if the waiting thread is interrupted
+     */
+    public synchronized SyncRequest take(long timeout)
+        throws InterruptedException
+    {
+        final long start = System.currentTimeMillis();
+        long end = start + timeout;
+        if (timeout < 0 || end < start)
+        {
+            // overflow, wait indefinitely
+            end = Long.MAX_VALUE;
+        }
+
+        SyncRequest request = null;
+        long now = start;
+        long wait = 0;
+
+        while (!fWoken && now < end)
+        {
+            if (hasPending())
+            {
+                long release = Math.min(fLastRequest + fQuietPeriod,
+                    fFirstRequest + fQuietPeriod * MAX_DELAY_FACTOR);
+
+                if (now >= release)
+                {
+                    request = drain();
+                    break;
+                }
+
+                wait = Math.min(release, end) - now;
+            } else
+            {
+                wait = end - now;
+            }
+
+            if (wait > 0)
+            {
+                wait(wait);
+            }
+            now = System.currentTimeMillis();
+        }
+        fWoken = false;
+
+        return request;
+    }
+
+    private SyncRequest drain()
+    {
+        SyncRequest request = null;
+
+        if (fFullPending)
+        {
+            request = new SyncRequest();
+        } else
+        {
+            request = new SyncRequest(new HashSet<String>(fUsers));
+        }
+
+        fFullPending = false;
+        fUsers.clear();
+        fFirstRequest = 0;
+        fLastRequest = 0;
+
+        return request;
+    }
+
+    /**
+     * Wakes up a thread waiting for work without releasing any pending work.
+     */
+    public synchronized void wakeUp()
+    {
+        fWoken = true;
+        notifyAll();
+    }
+}
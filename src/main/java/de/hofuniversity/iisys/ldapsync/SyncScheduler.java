@@ -1,16 +1,19 @@
 package de.hofuniversity.iisys.ldapsync;
 
+import java.util.Collection;
 import java.util.GregorianCalendar;
 import java.util.List;
 
 import javax.naming.NamingEnumeration;
 
+import de.hofuniversity.iisys.ldapsync.config.CycleTypes;
 import de.hofuniversity.iisys.ldapsync.config.SyncConfig;
 import de.hofuniversity.iisys.ldapsync.endpoints.ISyncEndpoint;
 
 /**
  * Scheduler that initiates the synchronization process on a regular basis as
- * configured or when forced. It opens a connection before synchronizing and
+ * configured or when forced. Forced and targeted synchronizations are
+ * coalesced by a request queue. It opens a connection before synchronizing and
  * closes it afterwards.
  * 
  * @author fholzschuher2
@@ -20,19 +23,22 @@ public class SyncScheduler implements Runnable
 {
     private static final long TIME_THRESHOLD = 60000;
 
-    private final Object fTrigger;
+    // share of the time budget reserved for writing LDAP changes
+    private static final long WRITE_BUDGET_DIVISOR = 4;
+
+    private final SyncRequestQueue fQueue;
 
     private final SyncConfig fConfig;
     private final ILdapConnector fLdap;
     private final ISyncEndpointFactory fFactory;
     private final LdapBuffer fBuffer;
+    private final AdaptiveCycle fAdaptive;
 
     private long fWaitTime, fNextSync;
 
     private List<ISyncEndpoint> fEndPoints;
 
     private boolean fRunning;
-    private boolean fForceSync;
 
     /**
      * Creates a synchronization scheduler that synchronizes according to the
@@ -69,13 +75,26 @@ public class SyncScheduler implements Runnable
             throw new NullPointerException("ldap buffer was null");
         }
 
-        fTrigger = new Object();
         fConfig = config;
         fLdap = ldap;
         fFactory = factory;
         fBuffer = buffer;
 
-        fForceSync = fConfig.getSyncOnStart();
+        fQueue = new SyncRequestQueue(fConfig.getQuietPeriod() * 1000L);
+        if (fConfig.getInterval() == CycleTypes.ADAPTIVE)
+        {
+            fAdaptive = new AdaptiveCycle(fConfig.getMinInterval() * 60000L,
+                fConfig.getMaxInterval() * 60000L);
+        } else
+        {
+            fAdaptive = null;
+        }
+
+        if (fConfig.getSyncOnStart())
+        {
+            fQueue.requestFullSync();
+        }
+
         fEndPoints = fFactory.createEndpoints();
     }
 
@@ -83,17 +102,50 @@ public class SyncScheduler implements Runnable
     {
         fRunning = true;
 
+        // compute time to first cycle
+        computeTime();
+
         while (fRunning)
         {
-            // execute synchronizations if forced or time is correct enough
-            if (fForceSync || System.currentTimeMillis() >= fNextSync
-                || System.currentTimeMillis() - fNextSync < TIME_THRESHOLD)
+            SyncRequest request = null;
+
+            // wait for queued work or the next scheduled cycle
+            try
+            {
+                request = fQueue.take(fWaitTime);
+            } catch (InterruptedException e)
             {
-                fForceSync = false;
+                e.printStackTrace();
+            }
 
+            // stop if there was an interrupt
+            if (!fRunning)
+            {
+                return;
+            }
+
+            // execute scheduled synchronization if time is correct enough
+            if (request == null
+                && fNextSync - System.currentTimeMillis() < TIME_THRESHOLD)
+            {
+                request = new SyncRequest();
+            }
+
+            if (request != null)
+            {
                 try
                 {
-                    sync();
+                    long time = System.currentTimeMillis();
+                    int changes = sync(request);
+                    time = System.currentTimeMillis() - time;
+
+                    // only full cycles are representative for the change rate
+                    if (fAdaptive != null && request.isFull())
+                    {
+                        fAdaptive.update(changes, time);
+                        System.out.println("next adaptive cycle in "
+                            + fAdaptive.getInterval() / 60000 + " min");
+                    }
                 } catch (Exception e)
                 {
                     e.printStackTrace();
@@ -101,41 +153,58 @@ public class SyncScheduler implements Runnable
                     // stop?
                     // fRunning = false;
                 }
-            }
-
-            // stop if there was an interrupt
-            if (!fRunning)
-            {
-                return;
-            }
 
-            // compute time to next cycle
-            computeTime();
-
-            try
-            {
-                synchronized (fTrigger)
+                // compute time to next cycle
+                if (request.isFull())
                 {
-                    fTrigger.wait(fWaitTime);
+                    computeTime();
                 }
-            } catch (InterruptedException e)
-            {
-                e.printStackTrace();
             }
+
+            // refresh remaining waiting time
+            fWaitTime = Math.max(0, fNextSync - System.currentTimeMillis());
         }
     }
 
+    /**
+     * Reads the current data from LDAP, synchronizes all end points as
+     * requested and writes the resulting changes to LDAP.
+     * 
+     * @param request
+     *            request defining which users to synchronize
+     * @return number of changed entries on either side
+     * @throws Exception
+     *             if reading from or writing to LDAP fails
+     */
     @SuppressWarnings("rawtypes")
-    private void sync() throws Exception
+    int sync(SyncRequest request) throws Exception
     {
+        // limit cycle time, reserving some of it for writing to LDAP
+        long deadline = 0;
+        if (fConfig.getTimeBudget() > 0)
+        {
+            final long budget = fConfig.getTimeBudget() * 60000L;
+            deadline = System.currentTimeMillis() + budget;
+            request.setDeadline(deadline - budget / WRITE_BUDGET_DIVISOR);
+        }
+
         // get current data from LDAP
         System.out.println("connecting to LDAP");
         fLdap.connect();
 
         // refresh data
-        System.out.print("getting users from LDAP");
+        String filter = "uid=*";
+        if (request.isFull())
+        {
+            System.out.print("getting users from LDAP");
+        } else
+        {
+            System.out.print("getting " + request.getUsers().size()
+                + " requested users from LDAP");
+            filter = getUserFilter(request.getUsers());
+        }
         long time = System.currentTimeMillis();
-        NamingEnumeration data = fLdap.query("", "uid=*");
+        NamingEnumeration data = fLdap.query("", filter);
         fBuffer.setData(data);
         time = System.currentTimeMillis() - time;
         System.out.println(" (" + time + " ms)");
@@ -143,37 +212,119 @@ public class SyncScheduler implements Runnable
         // refresh all end points
         System.out.println("synchronizing with end points");
         int count = 1;
+        int writes = 0;
         for (ISyncEndpoint endPoint : fEndPoints)
         {
             try
             {
                 System.out.print("end point " + count + " ...");
                 time = System.currentTimeMillis();
-                endPoint.sync();
+                endPoint.sync(request);
                 time = System.currentTimeMillis() - time;
-                System.out.println(" done (" + time + " ms)");
+                System.out.println(" done (" + time + " ms, "
+                    + endPoint.getWriteCount() + " written)");
             } catch (Exception e)
             {
                 e.printStackTrace();
             }
+
+            writes += endPoint.getWriteCount();
         }
 
+        // measure changes before they are written
+        final int changedEntries = fBuffer.getChangedUserCount();
+        final int modifications = fBuffer.getModificationCount();
+
         // write changes in the buffer if there are any
         if (fBuffer.hasChanges())
         {
-            System.out.print("writing changes to LDAP ...");
+            System.out.print("writing changes to LDAP (" + changedEntries
+                + " entries, " + modifications + " modifications) ...");
             time = System.currentTimeMillis();
-            fBuffer.writeToLdap();
+            fBuffer.writeToLdap(deadline, request.isFull());
             time = System.currentTimeMillis() - time;
             System.out.println(" done (" + time + " ms)");
+
+            if (fBuffer.getThrottle().isLimited())
+            {
+                System.out.println("LDAP writes: " + fBuffer.getThrottle());
+            }
         } else
         {
             System.out.println("no changes");
         }
 
+        // store end points' state for users whose changes were written
+        for (ISyncEndpoint endPoint : fEndPoints)
+        {
+            try
+            {
+                endPoint.commit();
+            } catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+
         // discard LDAP connection
         System.out.println("disconnecting from LDAP");
         fLdap.disconnect();
+
+        // changed entries on either side, modified users are counted once
+        return changedEntries + writes;
+    }
+
+    private String getUserFilter(Collection<String> names)
+    {
+        final StringBuffer filter = new StringBuffer("(|");
+
+        for (String name : names)
+        {
+            filter.append("(uid=");
+            filter.append(escapeFilterValue(name));
+            filter.append(')');
+        }
+
+        return filter.append(')').toString();
+    }
+
+    /**
+     * Escapes the special characters of the given value as defined in RFC
+     * 4515, so that it can be used as an assertion value in search filters.
+     * 
+     * @param value
+     *            value to escape
+     * @return escaped value
+     */
+    static String escapeFilterValue(String value)
+    {
+        final StringBuffer escaped = new StringBuffer(value.length());
+
+        for (char c : value.toCharArray())
+        {
+            switch (c)
+            {
+                case '\\':
+                    escaped.append("\\5c");
+                    break;
+                case '*':
+                    escaped.append("\\2a");
+                    break;
+                case '(':
+                    escaped.append("\\28");
+                    break;
+                case ')':
+                    escaped.append("\\29");
+                    break;
+                case '\0':
+                    escaped.append("\\00");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
     }
 
     private void computeTime()
@@ -239,6 +390,13 @@ public class SyncScheduler implements Runnable
                 fWaitTime = fNextSync - System.currentTimeMillis();
                 break;
 
+            // adapted to the change rate observed in previous cycles
+            case ADAPTIVE:
+                fNextSync = System.currentTimeMillis()
+                    + fAdaptive.getInterval();
+                fWaitTime = fAdaptive.getInterval();
+                break;
+
             // synchronization can only be triggered manually
             case MANUAL:
                 fWaitTime = Long.MAX_VALUE;
@@ -262,22 +420,42 @@ public class SyncScheduler implements Runnable
     {
         fRunning = false;
 
-        synchronized (fTrigger)
-        {
-            fTrigger.notify();
-        }
+        fQueue.wakeUp();
     }
 
     /**
-     * Causes the scheduler to perform an unscheduled synchronization.
+     * Causes the scheduler to perform an unscheduled synchronization. Multiple
+     * requests within the configured quiet period result in a single
+     * synchronization.
      */
     public void forceSync()
     {
-        fForceSync = true;
+        fQueue.requestFullSync();
+    }
 
-        synchronized (fTrigger)
-        {
-            fTrigger.notify();
-        }
+    /**
+     * Causes the scheduler to synchronize the user with the given UID only.
+     * Requests within the configured quiet period are merged and are subsumed
+     * by pending full synchronizations. Name may not be null.
+     * 
+     * @param name
+     *            UID of the user to synchronize
+     */
+    public void forceSync(String name)
+    {
+        fQueue.requestUserSync(name);
+    }
+
+    /**
+     * Causes the scheduler to synchronize the users with the given UIDs only.
+     * Requests within the configured quiet period are merged and are subsumed
+     * by pending full synchronizations. Collection may not be null.
+     * 
+     * @param names
+     *            UIDs of the users to synchronize
+     */
+    public void forceSync(Collection<String> names)
+    {
+        fQueue.requestUserSync(names);
     }
 }
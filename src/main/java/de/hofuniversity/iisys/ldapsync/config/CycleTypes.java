@@ -1,12 +1,13 @@
 package de.hofuniversity.iisys.ldapsync.config;
 
 /**
- * Enumeration of cycle types for regular sync operations
+ * Enumeration of cycle types for regular sync operations. ADAPTIVE cycles
+ * adjust their interval to the observed change rate.
  * 
  * @author fholzschuher2
  * 
  */
 public enum CycleTypes
 {
-    HOURLY, DAILY, WEEKLY, MONTHLY, MANUAL;
+    HOURLY, DAILY, WEEKLY, MONTHLY, ADAPTIVE, MANUAL;
 }
@@ -18,12 +18,20 @@ public class SyncConfig
     private char[] fPassword;
     private boolean fReadOnly = true;
     private boolean fSubtreeSearch = true;
+    private int fOpsPerSec, fBytesPerSec;
 
     // synchronization
     private boolean fSyncOnStart;
     private CycleTypes fInterval;
     private String fTime;
     private int fDay;
+    private int fQuietPeriod = 5;
+    private int fMinInterval = 15;
+    private int fMaxInterval = 1440;
+    private int fTimeBudget;
+
+    // persistent state
+    private String fStateFolder;
 
     // initial values
     private List<String> fInitialClasses;
@@ -184,6 +192,94 @@ public class SyncConfig
         fDay = day;
     }
 
+    /**
+     * @return seconds without new requests before forced synchronizations are
+     *         executed (default: 5)
+     */
+    public int getQuietPeriod()
+    {
+        return fQuietPeriod;
+    }
+
+    /**
+     * @param quietPeriod
+     *            seconds without new requests before forced synchronizations
+     *            are executed
+     */
+    public void setQuietPeriod(int quietPeriod)
+    {
+        fQuietPeriod = quietPeriod;
+    }
+
+    /**
+     * @return minimum minutes between adaptive cycles (default: 15)
+     */
+    public int getMinInterval()
+    {
+        return fMinInterval;
+    }
+
+    /**
+     * @param minInterval
+     *            minimum minutes between adaptive cycles
+     */
+    public void setMinInterval(int minInterval)
+    {
+        fMinInterval = minInterval;
+    }
+
+    /**
+     * @return maximum minutes between adaptive cycles (default: 1440)
+     */
+    public int getMaxInterval()
+    {
+        return fMaxInterval;
+    }
+
+    /**
+     * @param maxInterval
+     *            maximum minutes between adaptive cycles
+     */
+    public void setMaxInterval(int maxInterval)
+    {
+        fMaxInterval = maxInterval;
+    }
+
+    /**
+     * @return minutes a single synchronization cycle may take, 0 for no limit
+     */
+    public int getTimeBudget()
+    {
+        return fTimeBudget;
+    }
+
+    /**
+     * @param timeBudget
+     *            minutes a single synchronization cycle may take, 0 for no
+     *            limit
+     */
+    public void setTimeBudget(int timeBudget)
+    {
+        fTimeBudget = timeBudget;
+    }
+
+    /**
+     * @return folder to store state between cycles in or null
+     */
+    public String getStateFolder()
+    {
+        return fStateFolder;
+    }
+
+    /**
+     * @param stateFolder
+     *            folder to store state between cycles in or null
+     */
+    public void setStateFolder(String stateFolder)
+    {
+        fStateFolder = stateFolder;
+    }
+
     /**
      * @return whether the LDAP service should not be written to (default:true)
      */
@@ -217,6 +313,44 @@ public class SyncConfig
         fSubtreeSearch = subtreeSearch;
     }
     
+    /**
+     * @return maximum number of LDAP write operations per second, 0 for no
+     *         limit
+     */
+    public int getOpsPerSec()
+    {
+        return fOpsPerSec;
+    }
+
+    /**
+     * @param opsPerSec
+     *            maximum number of LDAP write operations per second, 0 for no
+     *            limit
+     */
+    public void setOpsPerSec(int opsPerSec)
+    {
+        fOpsPerSec = opsPerSec;
+    }
+
+    /**
+     * @return maximum number of bytes written to LDAP per second, 0 for no
+     *         limit
+     */
+    public int getBytesPerSec()
+    {
+        return fBytesPerSec;
+    }
+
+    /**
+     * @param bytesPerSec
+     *            maximum number of bytes written to LDAP per second, 0 for no
+     *            limit
+     */
+    public void setBytesPerSec(int bytesPerSec)
+    {
+        fBytesPerSec = bytesPerSec;
+    }
+
     /**
      * @return initial object classes for user objects
      */
@@ -12,9 +12,13 @@ import java.util.Map;
  */
 public class SyncEndpointConfig
 {
-    private String fType;
+    private String fType, fName;
+    private String fStateFolder;
     private boolean fCreateOwnEntries, fDeleteOwnEntries;
     private boolean fCreateLdapEntries, fDeleteLdapEntries;
+    private int fOpsPerSec, fBytesPerSec;
+    private int fRuleThreads = 1;
+    private int fBatchSize;
     private Map<String, String> fProperties;
     private List<SyncRule> fMapping;
 
@@ -26,6 +30,45 @@ public class SyncEndpointConfig
         return fType;
     }
 
+    /**
+     * @return unique name of the end point, defaults to its type
+     */
+    public String getName()
+    {
+        if (fName == null)
+        {
+            return fType;
+        }
+
+        return fName;
+    }
+
+    /**
+     * @param name
+     *            unique name of the end point
+     */
+    public void setName(String name)
+    {
+        fName = name;
+    }
+
+    /**
+     * @return folder to store state between cycles in or null
+     */
+    public String getStateFolder()
+    {
+        return fStateFolder;
+    }
+
+    /**
+     * @param stateFolder
+     *            folder to store state between cycles in or null
+     */
+    public void setStateFolder(String stateFolder)
+    {
+        fStateFolder = stateFolder;
+    }
+
     /**
      * @return map of configuration properties for the end point
      */
@@ -121,6 +164,78 @@ public class SyncEndpointConfig
         fDeleteLdapEntries = deleteLdapEntries;
     }
 
+    /**
+     * @return maximum number of write operations per second, 0 for no limit
+     */
+    public int getOpsPerSec()
+    {
+        return fOpsPerSec;
+    }
+
+    /**
+     * @param opsPerSec
+     *            maximum number of write operations per second, 0 for no
+     *            limit
+     */
+    public void setOpsPerSec(int opsPerSec)
+    {
+        fOpsPerSec = opsPerSec;
+    }
+
+    /**
+     * @return maximum number of bytes written per second, 0 for no limit
+     */
+    public int getBytesPerSec()
+    {
+        return fBytesPerSec;
+    }
+
+    /**
+     * @param bytesPerSec
+     *            maximum number of bytes written per second, 0 for no limit
+     */
+    public void setBytesPerSec(int bytesPerSec)
+    {
+        fBytesPerSec = bytesPerSec;
+    }
+
+    /**
+     * @return number of threads evaluating synchronization rules
+     */
+    public int getRuleThreads()
+    {
+        return fRuleThreads;
+    }
+
+    /**
+     * @param ruleThreads
+     *            number of threads evaluating synchronization rules, 1 for
+     *            sequential evaluation
+     */
+    public void setRuleThreads(int ruleThreads)
+    {
+        fRuleThreads = ruleThreads;
+    }
+
+    /**
+     * @return number of users read or written per call to bulk end points, 0
+     *         for all at once
+     */
+    public int getBatchSize()
+    {
+        return fBatchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            number of users read or written per call to bulk end points,
+     *            0 for all at once
+     */
+    public void setBatchSize(int batchSize)
+    {
+        fBatchSize = batchSize;
+    }
+
     /**
      * @return whether to create LDAP entries for end point entries
      */
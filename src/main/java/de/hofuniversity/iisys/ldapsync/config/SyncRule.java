@@ -1,8 +1,16 @@
 package de.hofuniversity.iisys.ldapsync.config;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.hofuniversity.iisys.ldapsync.transform.TransformChain;
+import de.hofuniversity.iisys.ldapsync.transform.TransformFactory;
+
 /**
  * Rule class providing a mapping of a LDAP property to the property of a
- * certain application and rules on how to synchronize them.
+ * certain application and rules on how to synchronize them. Values can be
+ * converted by a chain of transforms, which are compiled when they are added.
  * 
  * @author fholzschuher2
  * 
@@ -13,6 +21,9 @@ public class SyncRule
     private SyncDirections fDirection;
     private SyncOperations fOperation;
 
+    private final List<String> fTransforms = new ArrayList<String>();
+    private final TransformChain fTransform = new TransformChain();
+
     /**
      * @return name of the property in LDAP
      */
@@ -45,6 +56,35 @@ public class SyncRule
         return fOperation;
     }
 
+    /**
+     * @return specifications of the transforms in the order they are applied
+     */
+    public List<String> getTransforms()
+    {
+        return Collections.unmodifiableList(fTransforms);
+    }
+
+    /**
+     * @return compiled chain of transforms to apply to copied values
+     */
+    public TransformChain getTransform()
+    {
+        return fTransform;
+    }
+
+    /**
+     * Compiles and appends a transform to the rule's chain. Throws an
+     * IllegalArgumentException if the specification is unknown or invalid.
+     * 
+     * @param spec
+     *            specification of the transform
+     */
+    public void addTransform(String spec)
+    {
+        fTransform.add(TransformFactory.compile(spec));
+        fTransforms.add(spec);
+    }
+
     /**
      * @param ldapProp
      *            name of the property in LDAP
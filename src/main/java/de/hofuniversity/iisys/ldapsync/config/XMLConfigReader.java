@@ -34,13 +34,23 @@ public class XMLConfigReader
     private static final String PASSWORD = "password";
     private static final String READ_ONLY = "read_only";
     private static final String SUBTREE_SEARCH = "subtree_search";
+    private static final String OPS_PER_SEC = "write_ops_per_sec";
+    private static final String BYTES_PER_SEC = "write_bytes_per_sec";
 
     private static final String START_SYNC = "sync_on_start";
     private static final String INTERVAL = "interval";
     private static final String TIME = "time";
     private static final String DAY = "day";
+    private static final String QUIET_PERIOD = "quiet_period";
+    private static final String MIN_INTERVAL = "min_interval";
+    private static final String MAX_INTERVAL = "max_interval";
+    private static final String TIME_BUDGET = "time_budget";
+    private static final String STATE_FOLDER = "state_folder";
 
     private static final String TYPE = "type";
+    private static final String RULE_THREADS = "rule_threads";
+    private static final String BATCH_SIZE = "batch_size";
+    private static final String NAME = "name";
     private static final String CREATE_OWN = "create_own_entries";
     private static final String DELETE_OWN = "delete_own_entries";
     private static final String CREATE_LDAP = "create_ldap_entries";
@@ -53,6 +63,7 @@ public class XMLConfigReader
     private static final String END_POINT_PROP = "end_point_property";
     private static final String DIRECTION = "direction";
     private static final String OPERATION = "operation";
+    private static final String TRANSFORM = "transform";
 
     private final String fPath;
 
@@ -134,6 +145,15 @@ public class XMLConfigReader
             }
         }
 
+        // end points inherit global settings they don't override
+        for (SyncEndpointConfig endpoint : fConfig.getEndpoints())
+        {
+            if (endpoint.getStateFolder() == null)
+            {
+                endpoint.setStateFolder(fConfig.getStateFolder());
+            }
+        }
+
         return fConfig;
     }
 
@@ -159,6 +179,12 @@ public class XMLConfigReader
         {
             boolean sts = Boolean.parseBoolean(value);
             fConfig.setSubtreeSearch(sts);
+        } else if (name.equals(OPS_PER_SEC))
+        {
+            fConfig.setOpsPerSec(Integer.parseInt(value));
+        } else if (name.equals(BYTES_PER_SEC))
+        {
+            fConfig.setBytesPerSec(Integer.parseInt(value));
         }  else if (name.equals(START_SYNC))
         {
             boolean sync = Boolean.parseBoolean(value);
@@ -173,6 +199,21 @@ public class XMLConfigReader
         } else if (name.equals(DAY))
         {
             fConfig.setDay(Integer.parseInt(value));
+        } else if (name.equals(QUIET_PERIOD))
+        {
+            fConfig.setQuietPeriod(Integer.parseInt(value));
+        } else if (name.equals(MIN_INTERVAL))
+        {
+            fConfig.setMinInterval(Integer.parseInt(value));
+        } else if (name.equals(MAX_INTERVAL))
+        {
+            fConfig.setMaxInterval(Integer.parseInt(value));
+        } else if (name.equals(TIME_BUDGET))
+        {
+            fConfig.setTimeBudget(Integer.parseInt(value));
+        } else if (name.equals(STATE_FOLDER))
+        {
+            fConfig.setStateFolder(value);
         } else
         {
             System.out.println("unknown main config property: " + name);
@@ -408,6 +449,9 @@ public class XMLConfigReader
                 } else if (tag.equals(OPERATION))
                 {
                     rule.setOperation(SyncOperations.valueOf(value));
+                } else if (tag.equals(TRANSFORM))
+                {
+                    rule.addTransform(value);
                 } else
                 {
                     System.out.println("unknown rule property: " + tag);
@@ -433,6 +477,12 @@ public class XMLConfigReader
         if (name.equals(TYPE))
         {
             config.setType(value);
+        } else if (name.equals(NAME))
+        {
+            config.setName(value);
+        } else if (name.equals(STATE_FOLDER))
+        {
+            config.setStateFolder(value);
         } else if (name.equals(CREATE_OWN))
         {
             boolean create = Boolean.parseBoolean(value);
@@ -449,6 +499,18 @@ public class XMLConfigReader
         {
             boolean delete = Boolean.parseBoolean(value);
             config.setDeleteLdapEntries(delete);
+        } else if (name.equals(OPS_PER_SEC))
+        {
+            config.setOpsPerSec(Integer.parseInt(value));
+        } else if (name.equals(BYTES_PER_SEC))
+        {
+            config.setBytesPerSec(Integer.parseInt(value));
+        } else if (name.equals(RULE_THREADS))
+        {
+            config.setRuleThreads(Integer.parseInt(value));
+        } else if (name.equals(BATCH_SIZE))
+        {
+            config.setBatchSize(Integer.parseInt(value));
         } else
         {
             System.out.println("unknown end point property: " + name);
@@ -467,6 +529,9 @@ public class XMLConfigReader
             System.out.println("read-only: " + config.getReadOnly());
             System.out.println("sync on start: " + config.getSyncOnStart());
             System.out.println("cycle: " + config.getInterval());
+            System.out.println("quiet period: " + config.getQuietPeriod());
+            System.out.println("time budget: " + config.getTimeBudget());
+            System.out.println("state folder: " + config.getStateFolder());
 
             for (String clazz : config.getInitialClasses())
             {
@@ -480,7 +545,8 @@ public class XMLConfigReader
 
             for (SyncEndpointConfig sec : config.getEndpoints())
             {
-                System.out.println(sec.getType());
+                System.out.println(sec.getType() + " (" + sec.getName()
+                    + ")");
 
                 for (Entry<String, String> propE : sec.getProperties()
                     .entrySet())
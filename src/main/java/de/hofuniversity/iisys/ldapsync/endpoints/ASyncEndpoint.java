@@ -1,19 +1,27 @@
 package de.hofuniversity.iisys.ldapsync.endpoints;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.naming.NamingEnumeration;
 import javax.naming.directory.Attribute;
 
 import de.hofuniversity.iisys.ldapsync.LdapBuffer;
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
 import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
-import de.hofuniversity.iisys.ldapsync.config.SyncRule;
 import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.util.Fingerprint;
+import de.hofuniversity.iisys.ldapsync.util.StateStore;
+import de.hofuniversity.iisys.ldapsync.util.WriteThrottle;
 
 /**
  * Abstract implementation of an end point providing predefined methods for
@@ -22,24 +30,73 @@ import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
  * is: create LDAP users, delete end point users, create end point users, delete
  * LDAP users and rules in the order they were specified.
  * 
+ * Targeted requests restrict all steps to the requested users. Full
+ * synchronizations only apply rules to users whose fingerprint in LDAP or at
+ * the end point changed since they were last processed. If the request's time
+ * budget runs out, the last processed user is stored as a cursor and the next
+ * full synchronization continues after it.
+ * 
+ * Rules are compiled once into an execution plan that is applied user by user
+ * in the order of their names, fetching each attribute value needed only once
+ * per user. Values are converted by the rules' transforms before they are
+ * compared or copied. If multiple rule threads are configured, users are
+ * evaluated concurrently in chunks, recording their changes, which are then
+ * applied by the calling thread in the order of the users' names. End
+ * points also implementing IBulkEndpoint are read from and written to in
+ * batches of the configured size.
+ * 
+ * Rules copying values if they are newer keep a fingerprint of both sides'
+ * values per user and attribute between cycles, so that only the side that
+ * changed since is copied to the other. Rules copying or adding values in both
+ * directions are merged three-way against the last values both sides agreed
+ * on, writing only the merged differences to each side. Bases are only moved
+ * forward if reading both sides back yields the merged values.
+ * 
+ * Fingerprints, versions and merge bases are only stored by commit() for users
+ * whose changes were written both to LDAP and to the end point, so that
+ * changes that were not written are recomputed in the next cycle.
+ * 
  * @author fholzschuher2
  * 
  */
 public abstract class ASyncEndpoint implements ISyncEndpoint
 {
+    private static final String CURSOR_KEY = "rules";
+
+    // keys of processed state
+    private static final String PLAN_KEY = "plan";
+    private static final String USER_PREFIX = "user.";
+
+    // number of users a rule thread evaluates without splitting further
+    private static final int CHUNK_SIZE = 32;
+
     private final LdapBuffer fLdap;
-    private final List<SyncRule> fRules;
+    private final RulePlan fPlan;
 
     private final boolean fCreateOwn;
     private final boolean fCreateLdap;
     private final boolean fDeleteOwn;
     private final boolean fDeleteLdap;
 
-    private final Set<String> fCreatedUsers;
+    private final Set<String> fCreatedUsers, fFailedUsers;
+    private final StateStore fCursor, fVersions, fBases, fProcessed;
+    private final WriteThrottle fThrottle;
+    private final int fRuleThreads;
+    private final IBulkEndpoint fBulk;
+    private final int fBatchSize;
 
     private Set<String> fOwnUsers;
     private Map<String, ILdapUser> fLdapUsers;
 
+    // processed users' fingerprints, versions and merge bases, stored once
+    // their changes are written
+    private final Map<String, String> fPendingPrints;
+    private final Map<String, Map<String, String>> fPendingVersions,
+        fPendingBases;
+
+    private int fWriteCount;
+    private boolean fSynced;
+
     /**
      * Creates an abstract end point, executing a configurable standard
      * synchronization procedure. Throws a NullPointerException if any
@@ -62,7 +119,7 @@ public abstract class ASyncEndpoint implements ISyncEndpoint
         }
 
         fLdap = ldap;
-        fRules = config.getMapping();
+        fPlan = new RulePlan(config.getMapping());
 
         fCreateOwn = config.getCreateOwnEntries();
         fCreateLdap = config.getCreateLdapEntries();
@@ -70,6 +127,30 @@ public abstract class ASyncEndpoint implements ISyncEndpoint
         fDeleteLdap = config.getDeleteLdapEntries();
 
         fCreatedUsers = new HashSet<String>();
+        fFailedUsers = new HashSet<String>();
+        fPendingPrints = new HashMap<String, String>();
+        fPendingVersions = new HashMap<String, Map<String, String>>();
+        fPendingBases = new HashMap<String, Map<String, String>>();
+        fCursor = StateStore.open(config.getStateFolder(), config.getName()
+            + "-cursor");
+        fVersions = StateStore.open(config.getStateFolder(), config.getName()
+            + "-versions");
+        fBases = StateStore.open(config.getStateFolder(), config.getName()
+            + "-base");
+        fProcessed = StateStore.open(config.getStateFolder(),
+            config.getName() + "-processed");
+        fThrottle = new WriteThrottle(config.getOpsPerSec(),
+            config.getBytesPerSec());
+        fRuleThreads = config.getRuleThreads();
+
+        fBatchSize = config.getBatchSize();
+        if (this instanceof IBulkEndpoint)
+        {
+            fBulk = (IBulkEndpoint) this;
+        } else
+        {
+            fBulk = null;
+        }
     }
 
     // methods to implement
@@ -165,6 +246,37 @@ public abstract class ASyncEndpoint implements ISyncEndpoint
      */
     protected abstract void deleteUser(String name);
 
+    /**
+     * Returns the time the user with the given name was last modified at the
+     * end point, which decides conflicts when values changed on both sides.
+     * Implementations that can not tell should return -1, letting LDAP win.
+     * 
+     * @param name
+     *            name of the user
+     * @return time of the last modification in milliseconds or -1
+     */
+    protected long getLastModified(String name)
+    {
+        return -1;
+    }
+
+    /**
+     * Returns a fingerprint of the current state of the user with the given
+     * name at the end point, which has to change whenever any of the user's
+     * values change. Full synchronizations only apply rules to users whose
+     * fingerprint changed in LDAP or at the end point since they were last
+     * processed. Implementations that can not tell should return null, so
+     * that the user is always processed.
+     * 
+     * @param name
+     *            name of the user
+     * @return fingerprint of the user or null
+     */
+    protected String getFingerprint(String name)
+    {
+        return null;
+    }
+
     /**
      * Hook to execute before all other operations. Can be left blank.
      */
@@ -175,319 +287,1073 @@ public abstract class ASyncEndpoint implements ISyncEndpoint
      */
     protected abstract void postHook();
 
+    /**
+     * Adds to the number of entries written to the end point during the
+     * current synchronization. Should be called by implementations whenever
+     * they send changes.
+     * 
+     * @param count
+     *            number of entries written
+     */
+    protected void addWrites(int count)
+    {
+        fWriteCount += count;
+    }
+
+    /**
+     * Marks the changes to the user with the given name as not written to the
+     * end point, so that the user's synchronization state is not stored and
+     * the changes are recomputed in the next synchronization. Should be called
+     * by implementations whose writes failed or were skipped.
+     * 
+     * @param name
+     *            name of the user
+     */
+    protected void addFailedUser(String name)
+    {
+        fFailedUsers.add(name);
+    }
+
+    public int getWriteCount()
+    {
+        return fWriteCount;
+    }
+
+    /**
+     * Returns the throttle limiting writes to the end point as configured,
+     * which implementations should acquire before sending changes. It is
+     * shared by all writing threads.
+     * 
+     * @return throttle for writes to the end point
+     */
+    protected WriteThrottle getThrottle()
+    {
+        return fThrottle;
+    }
+
     // default synchronization routine
 
-    public void sync()
+    public void sync(SyncRequest request)
     {
+        fWriteCount = 0;
+        fSynced = false;
+        fFailedUsers.clear();
+        fPendingPrints.clear();
+        fPendingVersions.clear();
+        fPendingBases.clear();
+
         preHook();
 
-        fOwnUsers = getUserNames();
         fLdapUsers = fLdap.getAllUsers();
 
+        // split users into those on either or both sides in one pass
+        final UserJoin join = new UserJoin(getLdapNames(request),
+            getUserNames(request));
+        fOwnUsers = new HashSet<String>(join.getCommon());
+
         // create users in LDAP that only exist for the end point
         if (fCreateLdap)
         {
-            for (String name : fOwnUsers)
+            for (String name : join.getOwnOnly())
             {
-                if (!fLdapUsers.containsKey(name))
-                {
-                    fLdap.createUser(name);
-                }
+                fLdap.createUser(name);
             }
         }
 
         // delete users at the end point that don't exist in LDAP
-        if (fDeleteOwn)
+        if (fDeleteOwn && !fCreateLdap)
         {
-            for (String name : fOwnUsers)
+            ChangeBatch batch = new ChangeBatch();
+            for (String name : join.getOwnOnly())
             {
-                if (!fLdapUsers.containsKey(name))
+                if (fBulk != null)
+                {
+                    batch.addDelete(name);
+                    batch = flush(batch, false);
+                } else
                 {
                     deleteUser(name);
                 }
             }
+            flush(batch, true);
+        } else
+        {
+            fOwnUsers.addAll(join.getOwnOnly());
         }
 
-        // get a fresh list of users
-        fOwnUsers = getUserNames();
-
         // create users that only exist in LDAP
         if (fCreateOwn)
         {
-            for (Entry<String, ILdapUser> userE : fLdapUsers.entrySet())
+            ChangeBatch batch = new ChangeBatch();
+            for (String name : join.getLdapOnly())
             {
-                if (!fOwnUsers.contains(userE.getKey()))
+                if (fBulk != null)
+                {
+                    batch.addCreate(fLdapUsers.get(name));
+                    batch = flush(batch, false);
+                } else
                 {
-                    createUser(userE.getValue());
-                    fCreatedUsers.add(userE.getKey());
+                    createUser(fLdapUsers.get(name));
                 }
+                fCreatedUsers.add(name);
             }
+            flush(batch, true);
+            fOwnUsers.addAll(join.getLdapOnly());
         }
 
-        // get a fresh list of users
-        fOwnUsers = getUserNames();
-
         // delete users in LDAP that only exist at the end point
-        if (fDeleteLdap)
+        if (fDeleteLdap && !fCreateOwn)
+        {
+            for (String name : join.getLdapOnly())
+            {
+                fLdap.deleteUser(name);
+            }
+        }
+
+        // forget versions and bases of users that left the join
+        if (request.isFull())
+        {
+            forgetUsers(fVersions);
+            forgetUsers(fBases);
+        }
+
+        handleRules(request);
+
+        fCreatedUsers.clear();
+
+        postHook();
+        fSynced = true;
+
+        if (fThrottle.isLimited())
+        {
+            System.out.print(" [" + fThrottle + "]");
+        }
+    }
+
+    public void commit()
+    {
+        if (!fSynced)
+        {
+            return;
+        }
+
+        // users with unwritten changes are processed again
+        for (Entry<String, String> printE : fPendingPrints.entrySet())
+        {
+            final String name = printE.getKey();
+            if (isWritten(name))
+            {
+                fProcessed.put(USER_PREFIX + name, printE.getValue());
+            } else
+            {
+                fProcessed.remove(USER_PREFIX + name);
+            }
+        }
+        fProcessed.save();
+
+        // versions and bases only move forward once both sides agree on them
+        commit(fPendingVersions, fVersions);
+        if (fPlan.isVersioned())
+        {
+            fVersions.save();
+        }
+        commit(fPendingBases, fBases);
+        if (fPlan.isMerged())
         {
-            Set<String> toDelete = new HashSet<String>();
+            fBases.save();
+        }
+
+        fPendingPrints.clear();
+        fPendingVersions.clear();
+        fPendingBases.clear();
+        fSynced = false;
+    }
 
-            for (Entry<String, ILdapUser> userE : fLdapUsers.entrySet())
+    private void commit(Map<String, Map<String, String>> pending,
+        StateStore store)
+    {
+        for (Entry<String, Map<String, String>> userE : pending.entrySet())
+        {
+            if (isWritten(userE.getKey()))
             {
-                if (!fOwnUsers.contains(userE.getKey()))
+                for (Entry<String, String> valueE : userE.getValue()
+                    .entrySet())
                 {
-                    toDelete.add(userE.getKey());
+                    store.put(valueE.getKey(), valueE.getValue());
                 }
             }
+        }
+    }
 
-            for (String name : toDelete)
+    private void forgetUsers(StateStore store)
+    {
+        // keys consist of the user's name and the rule's two attributes
+        for (String key : new ArrayList<String>(store.keySet()))
+        {
+            final int sep = key.lastIndexOf('|', key.lastIndexOf('|') - 1);
+            if (sep > 0 && !fOwnUsers.contains(key.substring(0, sep)))
             {
-                fLdap.deleteUser(name);
+                store.remove(key);
             }
         }
+    }
 
-        handleRules();
+    /**
+     * Returns whether the changes to the user with the given name were written
+     * to both LDAP and the end point in the last synchronization. Can be used
+     * by implementations to commit their own state in {@link #commit()}.
+     * 
+     * @param name
+     *            name of the user
+     * @return whether the user's changes were written
+     */
+    protected boolean isWritten(String name)
+    {
+        return fLdap.isWritten(name) && !fFailedUsers.contains(name);
+    }
 
-        fCreatedUsers.clear();
+    private Set<String> getUserNames(SyncRequest request)
+    {
+        Set<String> names = getUserNames();
 
-        postHook();
+        // only consider requested users
+        if (!request.isFull())
+        {
+            names = new HashSet<String>(names);
+            names.retainAll(request.getUsers());
+        }
+
+        return names;
+    }
+
+    private ChangeBatch flush(ChangeBatch batch, boolean force)
+    {
+        // send full batches to bulk end points
+        if (!batch.isEmpty()
+            && (force || fBatchSize > 0 && batch.size() >= fBatchSize))
+        {
+            fBulk.apply(batch);
+            batch = new ChangeBatch();
+        }
+
+        return batch;
+    }
+
+    private Collection<String> getLdapNames(SyncRequest request)
+    {
+        Collection<String> names = fLdapUsers.keySet();
+
+        // only consider requested users
+        if (!request.isFull())
+        {
+            names = new HashSet<String>(request.getUsers());
+            names.retainAll(fLdapUsers.keySet());
+        }
+
+        return names;
     }
 
-    private void handleRules()
+    private void handleRules(SyncRequest request)
     {
-        for (SyncRule rule : fRules)
+        // fingerprints of both sides before any rules are applied
+        final Map<String, String> prints = new HashMap<String, String>();
+        for (String name : fOwnUsers)
+        {
+            prints.put(name, getPrint(name));
+        }
+
+        // full synchronizations only process users changed on either side
+        Set<String> users = fOwnUsers;
+        if (request.isFull())
+        {
+            users = getDirtyUsers(prints);
+        }
+
+        final String[] names = users.toArray(new String[users.size()]);
+        Arrays.sort(names);
+
+        // continue after the last user processed in a previous cycle
+        int offset = 0;
+        final String cursor = fCursor.get(CURSOR_KEY);
+        if (request.isFull() && cursor != null)
+        {
+            offset = Arrays.binarySearch(names, cursor);
+            offset = offset < 0 ? -offset - 1 : offset + 1;
+        }
+
+        // users in the order they are processed
+        final String[] order = new String[names.length];
+        for (int i = 0; i < names.length; ++i)
+        {
+            order[i] = names[(offset + i) % names.length];
+        }
+
+        // the threads are discarded afterwards as cycles can be far apart
+        ForkJoinPool pool = null;
+        if (fRuleThreads > 1)
         {
-            for (String user : fOwnUsers)
+            pool = new ForkJoinPool(fRuleThreads);
+        }
+
+        // process batches until one is cut off by the time budget
+        final int batchSize = fBulk != null && fBatchSize > 0 ? fBatchSize
+            : order.length;
+        int processed = 0;
+        try
+        {
+            for (int from = 0; from < order.length && processed == from;
+                from += batchSize)
+            {
+                processed += handleBatch(order, from, Math.min(from
+                    + batchSize, order.length), request, pool);
+            }
+        } finally
+        {
+            if (pool != null)
+            {
+                pool.shutdownNow();
+            }
+        }
+
+        // remember the state in which users were processed until committed
+        for (int i = 0; i < processed; ++i)
+        {
+            fPendingPrints.put(order[i], prints.get(order[i]));
+        }
+
+        if (request.isFull())
+        {
+            if (processed < order.length)
             {
-                switch (rule.getDirection())
+                System.out.println("time budget exhausted after " + processed
+                    + " of " + order.length + " users");
+
+                // keep the old cursor if nobody was processed
+                if (processed > 0)
                 {
-                    case TO_LDAP:
-                        handleToLdap(user, rule);
-                        break;
+                    fCursor.put(CURSOR_KEY, order[processed - 1]);
+                }
+            } else
+            {
+                fCursor.remove(CURSOR_KEY);
+            }
+            fCursor.save();
+        }
+    }
 
-                    case FROM_LDAP:
-                        handleFromLdap(user, rule);
-                        break;
+    private String getPrint(String name)
+    {
+        final String ldapPrint = fLdap.getFingerprint(name);
+        final String ownPrint = getFingerprint(name);
 
-                    case BOTH:
-                        handleBoth(user, rule);
-                        break;
+        // users whose state is unknown on either side are always processed
+        if (ldapPrint == null || ownPrint == null
+            || fCreatedUsers.contains(name))
+        {
+            return null;
+        }
+
+        return ldapPrint + ":" + ownPrint;
+    }
+
+    private Set<String> getDirtyUsers(Map<String, String> prints)
+    {
+        // all users are processed again after the rules changed
+        final String planPrint = fPlan.getFingerprint();
+        if (!planPrint.equals(fProcessed.get(PLAN_KEY)))
+        {
+            for (String key : new ArrayList<String>(fProcessed.keySet()))
+            {
+                fProcessed.remove(key);
+            }
+            fProcessed.put(PLAN_KEY, planPrint);
+        }
+
+        // forget users that no longer exist
+        for (String key : new ArrayList<String>(fProcessed.keySet()))
+        {
+            if (key.startsWith(USER_PREFIX)
+                && !prints.containsKey(key.substring(USER_PREFIX.length())))
+            {
+                fProcessed.remove(key);
+            }
+        }
+
+        final Set<String> dirty = new HashSet<String>();
+        String print = null;
+        for (Entry<String, String> printE : prints.entrySet())
+        {
+            print = printE.getValue();
+
+            if (print == null
+                || !print.equals(fProcessed.get(USER_PREFIX + printE.getKey())))
+            {
+                dirty.add(printE.getKey());
+            }
+        }
+
+        return dirty;
+    }
+
+    private int handleBatch(String[] order, int from, int to,
+        SyncRequest request, ForkJoinPool pool)
+    {
+        // fetch the end point's values for the whole batch at once
+        Map<String, Map<String, List<Object>>> values = null;
+        ChangeBatch batch = null;
+        if (fBulk != null)
+        {
+            if (!fPlan.getOwnReads().isEmpty())
+            {
+                values = fBulk.getValues(Arrays.asList(order).subList(from,
+                    to), fPlan.getOwnReads());
+            }
+            batch = new ChangeBatch();
+        }
+
+        final List<UserView> applied = new ArrayList<UserView>();
+        if (pool != null)
+        {
+            // evaluate concurrently, only reading from LDAP and the end point
+            final UserView[] views = new UserView[to - from];
+            pool.invoke(new EvaluateTask(order, views, values, request, from,
+                from, to));
+
+            // apply the contiguous prefix of evaluated users in order
+            while (applied.size() < views.length
+                && views[applied.size()] != null)
+            {
+                apply(views[applied.size()], batch);
+                applied.add(views[applied.size()]);
+            }
+        } else
+        {
+            for (int i = from; i < to; ++i)
+            {
+                // stop at a user boundary if the time budget ran out
+                if (request.isExpired())
+                {
+                    break;
                 }
+
+                final UserView view = evaluate(order[i], values);
+                apply(view, batch);
+                applied.add(view);
             }
         }
+
+        if (batch != null && !batch.isEmpty())
+        {
+            fBulk.apply(batch);
+        }
+
+        // bases can only be checked once the changes were applied
+        for (UserView view : applied)
+        {
+            storeBases(view);
+        }
+
+        return applied.size();
     }
 
-    private void handleToLdap(String name, SyncRule rule)
+    private UserView evaluate(String name,
+        Map<String, Map<String, List<Object>>> values)
     {
-        String ldapAtt = rule.getLdapProp();
-        List<Object> values = getValues(name, rule.getEndPointProp());
-        if (values == null || values.isEmpty())
+        final UserView view = new UserView(name);
+
+        // fetch all values the plan needs once
+        for (String att : fPlan.getLdapReads())
         {
-            // break if not found or not set
-            return;
+            view.setLdapValues(att, getLdapValues(name, att));
         }
 
-        switch (rule.getOperation())
+        Map<String, List<Object>> userValues = null;
+        if (values != null)
         {
-            case ADD_TO_LIST:
-                fLdap.addToAttribute(name, ldapAtt, values);
-                break;
+            userValues = values.get(name);
+            if (userValues == null)
+            {
+                userValues = new HashMap<String, List<Object>>();
+            }
+        }
+        for (String att : fPlan.getOwnReads())
+        {
+            if (userValues != null)
+            {
+                view.setOwnValues(att, userValues.get(att));
+            } else
+            {
+                view.setOwnValues(att, getValues(name, att));
+            }
+        }
 
-            case COPY:
-                fLdap.setAttribute(name, ldapAtt, values);
-                break;
+        for (RuleStep step : fPlan.getSteps())
+        {
+            execute(view, step);
+        }
 
-            case COPY_FIRST_ELEMENT:
-                fLdap.setAttribute(name, ldapAtt, values.get(0));
-                break;
+        return view;
+    }
 
-            case COPY_IF_NEWER:
-                // TODO: how?
-                break;
+    private void apply(UserView view, ChangeBatch batch)
+    {
+        final String name = view.getName();
+
+        for (RuleChange change : view.getChanges())
+        {
+            final String att = change.getAtt();
+            final List<Object> values = change.getValues();
 
-            case COPY_IF_NULL:
-                Attribute att = fLdap.getCurrentAttribute(name, ldapAtt);
-                boolean empty = true;
-                try
+            if (!change.isLdap() && batch != null)
+            {
+                batch.addUpdate(name, change);
+            } else if (change.isLdap())
+            {
+                if (values.isEmpty())
                 {
-                    if (att != null && att.get() != null
-                        && !att.get().toString().isEmpty())
-                    {
-                        empty = false;
-                    }
-                } catch (Exception e)
+                    fLdap.removeAttribute(name, att);
+                } else if (change.isAdd())
+                {
+                    fLdap.addToAttribute(name, att, values);
+                } else if (change.isSingle())
+                {
+                    fLdap.setAttribute(name, att, values.get(0));
+                } else
                 {
-                    e.printStackTrace();
+                    fLdap.setAttribute(name, att, values);
                 }
-                if (empty)
+            } else
+            {
+                if (values.isEmpty())
+                {
+                    removeAttribute(name, att);
+                } else if (change.isAdd())
                 {
-                    fLdap.setAttribute(name, ldapAtt, values);
+                    addValues(name, att, values);
+                } else if (change.isSingle())
+                {
+                    setAttribute(name, att, values.get(0));
+                } else
+                {
+                    setAttribute(name, att, values);
                 }
-                break;
+            }
+        }
+
+        if (!view.getVersions().isEmpty())
+        {
+            fPendingVersions.put(name, view.getVersions());
+        }
+    }
+
+    private void storeBases(UserView view)
+    {
+        final String name = view.getName();
 
-            case COPY_ON_CREATE:
-                if (fLdap.getUser(name).isNew())
+        // bases only move forward for values both sides now hold
+        if (!view.getBases().isEmpty())
+        {
+            final Map<String, String> bases = new HashMap<String, String>();
+            for (RuleStep step : fPlan.getSteps())
+            {
+                final String key = getKey(name, step);
+                final String base = view.getBases().get(key);
+
+                if (base != null && isAgreed(name, step, base))
                 {
-                    fLdap.setAttribute(name, ldapAtt, values);
+                    bases.put(key, base);
                 }
-                break;
+            }
+
+            if (!bases.isEmpty())
+            {
+                fPendingBases.put(name, bases);
+            }
         }
     }
 
-    private void handleFromLdap(String name, SyncRule rule)
+    private boolean isAgreed(String name, RuleStep step, String base)
     {
-        String ownAtt = rule.getEndPointProp();
-        Attribute att = fLdap.getCurrentAttribute(name, rule.getLdapProp());
-        if (att == null)
+        final List<Object> ldapValues = getLdapValues(name, step.getLdapAtt());
+        final List<Object> ownValues = getValues(name, step.getOwnAtt());
+
+        boolean agreed = false;
+        if (step.getAction() == RuleAction.BOTH_MERGE_LIST)
         {
-            // break if not found
-            return;
+            final Set<String> prints = ThreeWayMerge.decode(base);
+            agreed = prints.equals(ThreeWayMerge.getPrints(ldapValues))
+                && prints.equals(ThreeWayMerge.getPrints(ownValues));
+        } else
+        {
+            agreed = base.equals(Fingerprint.of(ldapValues))
+                && base.equals(Fingerprint.of(ownValues));
+        }
+
+        if (!agreed)
+        {
+            System.err.println("values of " + step.getOwnAtt() + " of user "
+                + name + " were not applied, keeping the merge base");
         }
 
-        List<Object> ldapValues = new ArrayList<Object>();
+        return agreed;
+    }
+
+    private List<Object> getLdapValues(String name, String att)
+    {
+        Attribute attribute = fLdap.getCurrentAttribute(name, att);
+        if (attribute == null)
+        {
+            return null;
+        }
+
+        List<Object> values = new ArrayList<Object>();
         try
         {
-            NamingEnumeration<?> valEnum = att.getAll();
+            NamingEnumeration<?> valEnum = attribute.getAll();
             while (valEnum.hasMore())
             {
-                ldapValues.add(valEnum.next());
+                values.add(valEnum.next());
             }
         } catch (Exception e)
         {
             e.printStackTrace();
         }
 
-        switch (rule.getOperation())
+        return values;
+    }
+
+    private void execute(UserView view, RuleStep step)
+    {
+        final String name = view.getName();
+        final String ldapAtt = step.getLdapAtt();
+        final String ownAtt = step.getOwnAtt();
+
+        List<Object> ldapValues = view.getLdapValues(ldapAtt);
+        List<Object> ownValues = view.getOwnValues(ownAtt);
+
+        // convert the values the rule copies, never both sides
+        if (step.isToLdap())
         {
-            case ADD_TO_LIST:
-                addValues(name, ownAtt, ldapValues);
-                break;
+            ownValues = step.getTransform().transform(ownValues);
+        } else
+        {
+            ldapValues = step.getTransform().transform(ldapValues);
+        }
 
-            case COPY:
-                if (ldapValues.size() > 1)
-                {
-                    setAttribute(name, ownAtt, ldapValues);
-                } else
+        switch (step.getAction())
+        {
+            case TO_LDAP_ADD:
+                if (!isEmpty(ownValues))
                 {
-                    setAttribute(name, ownAtt, ldapValues.get(0));
+                    view.addChange(new RuleChange(true, true, false, ldapAtt,
+                        ownValues));
+                    view.addLdapValues(ldapAtt, ownValues);
                 }
                 break;
 
-            case COPY_FIRST_ELEMENT:
-                setAttribute(name, ownAtt, ldapValues.get(0));
+            case TO_LDAP_COPY:
+                if (!isEmpty(ownValues))
+                {
+                    setLdap(view, ldapAtt, ownValues);
+                }
                 break;
 
-            case COPY_IF_NEWER:
-                // TODO: how?
+            case TO_LDAP_COPY_FIRST:
+                if (!isEmpty(ownValues))
+                {
+                    view.addChange(new RuleChange(true, false, true, ldapAtt,
+                        ownValues));
+                    view.setLdapValues(ldapAtt, ownValues.subList(0, 1));
+                }
                 break;
 
-            case COPY_IF_NULL:
-                List<Object> ownValues = getValues(name, ownAtt);
-                if (ownValues == null || ownValues.isEmpty())
+            case TO_LDAP_COPY_IF_NULL:
+                if (!isEmpty(ownValues) && isBlank(ldapValues))
                 {
-                    if (ldapValues.size() > 1)
-                    {
-                        setAttribute(name, ownAtt, ldapValues);
-                    } else
-                    {
-                        setAttribute(name, ownAtt, ldapValues.get(0));
-                    }
+                    setLdap(view, ldapAtt, ownValues);
                 }
                 break;
 
-            case COPY_ON_CREATE:
-                if (fCreatedUsers.contains(name))
+            case TO_LDAP_COPY_ON_CREATE:
+                if (!isEmpty(ownValues) && isNewInLdap(name))
                 {
-                    if (ldapValues.size() > 1)
-                    {
-                        setAttribute(name, ownAtt, ldapValues);
-                    } else
-                    {
-                        setAttribute(name, ownAtt, ldapValues.get(0));
-                    }
+                    setLdap(view, ldapAtt, ownValues);
                 }
                 break;
-        }
-    }
-
-    private void handleBoth(String name, SyncRule rule)
-    {
-        String ldapAtt = rule.getLdapProp();
-        String ownAtt = rule.getEndPointProp();
-        List<Object> ownValues = getValues(name, ownAtt);
-        Attribute att = fLdap.getCurrentAttribute(name, ldapAtt);
 
-        List<Object> ldapValues = new ArrayList<Object>();
-        if (att != null)
-        {
-            try
-            {
-                NamingEnumeration<?> valEnum = att.getAll();
-                while (valEnum.hasMore())
+            case FROM_LDAP_ADD:
+                if (!isEmpty(ldapValues))
                 {
-                    ldapValues.add(valEnum.next());
+                    view.addChange(new RuleChange(false, true, false, ownAtt,
+                        ldapValues));
+                    view.addOwnValues(ownAtt, ldapValues);
                 }
-            } catch (Exception e)
-            {
-                e.printStackTrace();
-            }
-        }
-
-        switch (rule.getOperation())
-        {
-            case ADD_TO_LIST:
-                // TODO: merging strategy?
                 break;
 
-            case COPY_IF_NEWER:
-                // TODO: how?
+            case FROM_LDAP_COPY:
+                if (!isEmpty(ldapValues))
+                {
+                    setOwn(view, ownAtt, ldapValues);
+                }
                 break;
 
-            case COPY_IF_NULL:
-                boolean ldapNull = false;
-                boolean ownNull = false;
+            case FROM_LDAP_COPY_FIRST:
+                if (!isEmpty(ldapValues))
+                {
+                    setOwn(view, ownAtt, ldapValues.subList(0, 1));
+                }
+                break;
 
-                if (ldapValues.isEmpty())
+            case FROM_LDAP_COPY_IF_NULL:
+                if (!isEmpty(ldapValues) && isEmpty(ownValues))
                 {
-                    ldapNull = true;
+                    setOwn(view, ownAtt, ldapValues);
                 }
-                if (ownValues == null || ownValues.isEmpty())
+                break;
+
+            case FROM_LDAP_COPY_ON_CREATE:
+                if (!isEmpty(ldapValues) && fCreatedUsers.contains(name))
                 {
-                    ownNull = true;
+                    setOwn(view, ownAtt, ldapValues);
                 }
+                break;
 
-                if (ldapNull && !ownNull)
+            case BOTH_COPY_IF_NULL:
+                if (isEmpty(ldapValues) && !isEmpty(ownValues))
                 {
-                    fLdap.setAttribute(name, ldapAtt, ownValues);
-                } else if (ownNull && !ldapNull)
+                    setLdap(view, ldapAtt, ownValues);
+                } else if (isEmpty(ownValues) && !isEmpty(ldapValues))
                 {
-                    setAttribute(name, ownAtt, ldapValues);
+                    view.addChange(new RuleChange(false, false, false, ownAtt,
+                        ldapValues));
+                    view.setOwnValues(ownAtt, ldapValues);
                 }
                 break;
-            case COPY_ON_CREATE:
+
+            case BOTH_COPY_ON_CREATE:
                 /*
                  * check which side the user was created on and copy from the
                  * other side
                  */
-                if (fCreatedUsers.contains(name))
+                if (fCreatedUsers.contains(name) && !isEmpty(ldapValues))
                 {
                     // user created at end point
-                    if (ldapValues.size() > 1)
-                    {
-                        setAttribute(name, ownAtt, ldapValues);
-                    } else
-                    {
-                        setAttribute(name, ownAtt, ldapValues.get(0));
-                    }
+                    setOwn(view, ownAtt, ldapValues);
                 }
 
-                ILdapUser ldapUser = fLdap.getUser(name);
-                if (ldapUser != null && ldapUser.isNew())
+                if (isNewInLdap(name) && !isEmpty(ownValues))
                 {
                     // user created in LDAP
-                    fLdap.setAttribute(name, ldapAtt, ownValues);
+                    setLdap(view, ldapAtt, ownValues);
                 }
                 break;
+
+            case TO_LDAP_COPY_IF_NEWER:
+                copyIfNewer(view, step, ldapValues, ownValues, true, false);
+                break;
+
+            case FROM_LDAP_COPY_IF_NEWER:
+                copyIfNewer(view, step, ldapValues, ownValues, false, true);
+                break;
+
+            case BOTH_COPY_IF_NEWER:
+                copyIfNewer(view, step, ldapValues, ownValues, true, true);
+                break;
+
+            case BOTH_MERGE:
+                merge(view, step, ldapValues, ownValues);
+                break;
+
+            case BOTH_MERGE_LIST:
+                mergeList(view, step, ldapValues, ownValues);
+                break;
+        }
+    }
+
+    private void copyIfNewer(UserView view, RuleStep step,
+        List<Object> ldapValues, List<Object> ownValues, boolean toLdap,
+        boolean fromLdap)
+    {
+        final String name = view.getName();
+        final String key = getKey(name, step);
+
+        final String ldapPrint = Fingerprint.of(ldapValues);
+        final String ownPrint = Fingerprint.of(ownValues);
+
+        // versions stored in the last cycle, unknown for new users
+        String oldLdap = null;
+        String oldOwn = null;
+        final String version = fVersions.get(key);
+        if (version != null)
+        {
+            final int sep = version.indexOf(':');
+            oldLdap = version.substring(0, sep);
+            oldOwn = version.substring(sep + 1);
+        }
+
+        final boolean ldapChanged = !ldapPrint.equals(oldLdap);
+        final boolean ownChanged = !ownPrint.equals(oldOwn);
+
+        // determine which side's values are newer
+        boolean ownNewer = false;
+        boolean ldapNewer = false;
+        if (!ldapPrint.equals(ownPrint))
+        {
+            if (ldapChanged && ownChanged)
+            {
+                ownNewer = ownWins(name, ldapValues, ownValues);
+                ldapNewer = !ownNewer;
+            } else
+            {
+                ownNewer = ownChanged;
+                ldapNewer = ldapChanged;
+            }
+        }
+
+        // the written side holds the copied values once the write landed
+        String newLdap = ldapPrint;
+        String newOwn = ownPrint;
+        if (toLdap && ownNewer && !isEmpty(ownValues))
+        {
+            setLdap(view, step.getLdapAtt(), ownValues);
+            newLdap = ownPrint;
+        } else if (fromLdap && ldapNewer && !isEmpty(ldapValues))
+        {
+            setOwn(view, step.getOwnAtt(), ldapValues);
+            newOwn = ldapPrint;
+        }
+
+        view.setVersion(key, newLdap + ":" + newOwn);
+    }
+
+    private void merge(UserView view, RuleStep step, List<Object> ldapValues,
+        List<Object> ownValues)
+    {
+        final String name = view.getName();
+        final String key = getKey(name, step);
+
+        final String ldapPrint = Fingerprint.of(ldapValues);
+        final String ownPrint = Fingerprint.of(ownValues);
+        final String base = fBases.get(key);
+
+        String agreed = ldapPrint;
+        if (!ldapPrint.equals(ownPrint))
+        {
+            // copy from the side that changed since the base
+            boolean toLdap = false;
+            if (ldapPrint.equals(base))
+            {
+                toLdap = true;
+            } else if (!ownPrint.equals(base))
+            {
+                // conflict or no base
+                toLdap = ownWins(name, ldapValues, ownValues);
+            }
+
+            if (toLdap)
+            {
+                replaceLdap(view, step.getLdapAtt(), ownValues);
+                agreed = ownPrint;
+            } else
+            {
+                replaceOwn(view, step.getOwnAtt(), ldapValues);
+            }
+        }
+
+        view.setBase(key, agreed);
+    }
+
+    private void mergeList(UserView view, RuleStep step,
+        List<Object> ldapValues, List<Object> ownValues)
+    {
+        final String key = getKey(view.getName(), step);
+
+        final Set<String> base = ThreeWayMerge.decode(fBases.get(key));
+
+        final List<Object> merged = ThreeWayMerge.mergeSets(base, ldapValues,
+            ownValues);
+        final Set<String> mergedPrints = ThreeWayMerge.getPrints(merged);
+
+        // only write the differences to each side
+        final Set<String> ldapPrints = ThreeWayMerge.getPrints(ldapValues);
+        if (!ldapPrints.equals(mergedPrints))
+        {
+            if (mergedPrints.containsAll(ldapPrints))
+            {
+                List<Object> added = getAdded(merged, ldapPrints);
+                view.addChange(new RuleChange(true, true, false,
+                    step.getLdapAtt(), added));
+                view.addLdapValues(step.getLdapAtt(), added);
+            } else
+            {
+                replaceLdap(view, step.getLdapAtt(), merged);
+            }
+        }
+
+        final Set<String> ownPrints = ThreeWayMerge.getPrints(ownValues);
+        if (!ownPrints.equals(mergedPrints))
+        {
+            if (mergedPrints.containsAll(ownPrints))
+            {
+                List<Object> added = getAdded(merged, ownPrints);
+                view.addChange(new RuleChange(false, true, false,
+                    step.getOwnAtt(), added));
+                view.addOwnValues(step.getOwnAtt(), added);
+            } else
+            {
+                replaceOwn(view, step.getOwnAtt(), merged);
+            }
+        }
+
+        view.setBase(key, ThreeWayMerge.encode(mergedPrints));
+    }
+
+    private List<Object> getAdded(List<Object> merged, Set<String> existing)
+    {
+        final List<Object> added = new ArrayList<Object>();
+
+        for (Object value : merged)
+        {
+            if (!existing.contains(Fingerprint.ofValue(value)))
+            {
+                added.add(value);
+            }
+        }
+
+        return added;
+    }
+
+    private boolean ownWins(String name, List<Object> ldapValues,
+        List<Object> ownValues)
+    {
+        // empty values never win, then the latest change, LDAP if unknown
+        boolean ownWins = false;
+
+        if (isEmpty(ldapValues))
+        {
+            ownWins = true;
+        } else if (!isEmpty(ownValues))
+        {
+            ownWins = getLastModified(name) > fLdap.getLastModified(name);
+        }
+
+        return ownWins;
+    }
+
+    private String getKey(String name, RuleStep step)
+    {
+        return name + "|" + step.getLdapAtt() + "|" + step.getOwnAtt();
+    }
+
+    private void replaceLdap(UserView view, String att, List<Object> values)
+    {
+        if (isEmpty(values))
+        {
+            view.addChange(new RuleChange(true, false, false, att,
+                new ArrayList<Object>()));
+            view.setLdapValues(att, null);
+        } else
+        {
+            setLdap(view, att, values);
+        }
+    }
+
+    private void replaceOwn(UserView view, String att, List<Object> values)
+    {
+        if (isEmpty(values))
+        {
+            view.addChange(new RuleChange(false, false, false, att,
+                new ArrayList<Object>()));
+            view.setOwnValues(att, null);
+        } else
+        {
+            setOwn(view, att, values);
+        }
+    }
+
+    private void setLdap(UserView view, String att, List<Object> values)
+    {
+        view.addChange(new RuleChange(true, false, false, att, values));
+        view.setLdapValues(att, values);
+    }
+
+    private void setOwn(UserView view, String att, List<Object> values)
+    {
+        // single values are set as such
+        view.addChange(new RuleChange(false, false, values.size() == 1, att,
+            values));
+        view.setOwnValues(att, values);
+    }
+
+    private boolean isNewInLdap(String name)
+    {
+        ILdapUser ldapUser = fLdap.getUser(name);
+
+        return ldapUser != null && ldapUser.isNew();
+    }
+
+    private boolean isEmpty(List<Object> values)
+    {
+        return values == null || values.isEmpty();
+    }
+
+    private boolean isBlank(List<Object> values)
+    {
+        return isEmpty(values) || values.get(0) == null
+            || values.get(0).toString().isEmpty();
+    }
+
+    /**
+     * Task evaluating the execution plan for a range of users, splitting the
+     * range until it is small enough to be evaluated by a single thread.
+     * Evaluated users' views are stored at their position relative to the
+     * start of the batch, users skipped because the time budget ran out are
+     * left null.
+     */
+    private class EvaluateTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] fOrder;
+        private final UserView[] fViews;
+        private final Map<String, Map<String, List<Object>>> fValues;
+        private final SyncRequest fRequest;
+        private final int fStart, fFrom, fTo;
+
+        public EvaluateTask(String[] order, UserView[] views,
+            Map<String, Map<String, List<Object>>> values,
+            SyncRequest request, int start, int from, int to)
+        {
+            fOrder = order;
+            fViews = views;
+            fValues = values;
+            fStart = start;
+            fRequest = request;
+            fFrom = from;
+            fTo = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (fTo - fFrom <= CHUNK_SIZE)
+            {
+                for (int i = fFrom; i < fTo; ++i)
+                {
+                    if (fRequest.isExpired())
+                    {
+                        break;
+                    }
+
+                    fViews[i - fStart] = evaluate(fOrder[i], fValues);
+                }
+            } else
+            {
+                final int middle = (fFrom + fTo) >>> 1;
+                invokeAll(new EvaluateTask(fOrder, fViews, fValues, fRequest,
+                    fStart, fFrom, middle), new EvaluateTask(fOrder, fViews,
+                    fValues, fRequest, fStart, middle, fTo));
+            }
         }
     }
 }
@@ -0,0 +1,114 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+
+/**
+ * Batch of changes to apply to a bulk end point in a single call, containing
+ * users to create, attribute changes per user and users to delete, each in
+ * the order they were added.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ChangeBatch
+{
+    private final List<ILdapUser> fCreates;
+    private final Map<String, List<RuleChange>> fUpdates;
+    private final List<String> fDeletes;
+
+    private int fSize;
+
+    /**
+     * Creates an empty batch.
+     */
+    public ChangeBatch()
+    {
+        fCreates = new ArrayList<ILdapUser>();
+        fUpdates = new LinkedHashMap<String, List<RuleChange>>();
+        fDeletes = new ArrayList<String>();
+    }
+
+    /**
+     * @param user
+     *            LDAP user to create a user at the end point for
+     */
+    public void addCreate(ILdapUser user)
+    {
+        fCreates.add(user);
+        ++fSize;
+    }
+
+    /**
+     * @param name
+     *            name of the user to change
+     * @param change
+     *            change to one of the user's attributes
+     */
+    public void addUpdate(String name, RuleChange change)
+    {
+        List<RuleChange> changes = fUpdates.get(name);
+        if (changes == null)
+        {
+            changes = new ArrayList<RuleChange>();
+            fUpdates.put(name, changes);
+        }
+
+        changes.add(change);
+        ++fSize;
+    }
+
+    /**
+     * @param name
+     *            name of the user to delete
+     */
+    public void addDelete(String name)
+    {
+        fDeletes.add(name);
+        ++fSize;
+    }
+
+    /**
+     * @return LDAP users to create users at the end point for
+     */
+    public List<ILdapUser> getCreates()
+    {
+        return fCreates;
+    }
+
+    /**
+     * @return changes to apply per user name
+     */
+    public Map<String, List<RuleChange>> getUpdates()
+    {
+        return fUpdates;
+    }
+
+    /**
+     * @return names of users to delete
+     */
+    public List<String> getDeletes()
+    {
+        return fDeletes;
+    }
+
+    /**
+     * @return total number of creates, attribute changes and deletes
+     */
+    public int size()
+    {
+        return fSize;
+    }
+
+    /**
+     * @return whether the batch contains no changes
+     */
+    public boolean isEmpty()
+    {
+        return fSize == 0;
+    }
+}
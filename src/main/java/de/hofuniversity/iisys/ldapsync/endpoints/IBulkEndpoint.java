@@ -0,0 +1,45 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional interface for end points extending ASyncEndpoint that can read and
+ * write many users in a single call, like remote APIs or databases. If an end
+ * point implements it, values are fetched and changes are applied in batches
+ * of the configured size instead of through the per-user and per-attribute
+ * methods.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public interface IBulkEndpoint
+{
+    /**
+     * Gets the values of the given attributes for all of the given users. The
+     * result maps user names to maps of attribute names to lists of values;
+     * users and attributes without values may be left out. None of the
+     * parameters may be null.
+     * 
+     * @param names
+     *            names of the users to get values for
+     * @param atts
+     *            names of the attributes to get
+     * @return map of users' attribute values
+     */
+    public Map<String, Map<String, List<Object>>> getValues(
+        Collection<String> names, Collection<String> atts);
+
+    /**
+     * Applies a batch of changes, creating, updating and deleting users in
+     * this order. Afterwards, the end point's user names and values have to
+     * reflect the changes. Users whose changes could not be applied should be
+     * reported through ASyncEndpoint.addFailedUser(). Parameter may not be
+     * null.
+     * 
+     * @param batch
+     *            changes to apply
+     */
+    public void apply(ChangeBatch batch);
+}
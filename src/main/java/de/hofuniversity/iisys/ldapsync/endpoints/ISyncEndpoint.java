@@ -1,5 +1,7 @@
 package de.hofuniversity.iisys.ldapsync.endpoints;
 
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
+
 /**
  * Interface for a synchronization end point providing the functionality to
  * extract and set people's properties in another application based on LDAP in-
@@ -14,10 +16,26 @@ public interface ISyncEndpoint
      * Tells the end point to synchronize with the LDAP service, based on the
      * current state of the buffer. If any connections are needed, they should
      * be established when called and discarded afterwards as there can be a
-     * long time span between calls.
+     * long time span between calls. For targeted requests, only the requested
+     * users may be created, deleted or modified.
      * 
-     * @param ldapContents
-     *            result from the latest full query
+     * @param request
+     *            request defining which users to synchronize
+     */
+    public void sync(SyncRequest request);
+
+    /**
+     * Tells the end point that the buffer's changes were written to LDAP, so
+     * that it can store its synchronization state for users whose changes
+     * were written on both sides. Users whose changes were not written keep
+     * their previous state, so that the changes are recomputed in the next
+     * synchronization. Does nothing if the latest synchronization failed.
+     */
+    public void commit();
+
+    /**
+     * @return number of entries written to the end point during the latest
+     *         synchronization
      */
-    public void sync();
+    public int getWriteCount();
 }
@@ -0,0 +1,17 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+/**
+ * Enumeration of the actions synchronization rules are compiled to, combining
+ * a rule's direction and operation.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public enum RuleAction
+{
+    TO_LDAP_ADD, TO_LDAP_COPY, TO_LDAP_COPY_FIRST, TO_LDAP_COPY_IF_NULL,
+    TO_LDAP_COPY_ON_CREATE, TO_LDAP_COPY_IF_NEWER, FROM_LDAP_ADD,
+    FROM_LDAP_COPY, FROM_LDAP_COPY_FIRST, FROM_LDAP_COPY_IF_NULL,
+    FROM_LDAP_COPY_ON_CREATE, FROM_LDAP_COPY_IF_NEWER, BOTH_COPY_IF_NULL,
+    BOTH_COPY_ON_CREATE, BOTH_COPY_IF_NEWER, BOTH_MERGE, BOTH_MERGE_LIST;
+}
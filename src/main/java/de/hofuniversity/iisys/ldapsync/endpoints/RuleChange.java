@@ -0,0 +1,85 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.List;
+
+/**
+ * Change to a single attribute of a user, recorded while an execution plan is
+ * evaluated and applied to LDAP or the end point afterwards. Recording
+ * changes instead of writing them directly allows users to be evaluated
+ * concurrently while all writes are applied by a single thread.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class RuleChange
+{
+    private final boolean fLdap, fAdd, fSingle;
+    private final String fAtt;
+    private final List<Object> fValues;
+
+    /**
+     * Creates a change to the given attribute. The attribute and the list of
+     * values must not be null. An empty list of values that are not added
+     * removes the attribute.
+     * 
+     * @param ldap
+     *            whether LDAP or the end point is changed
+     * @param add
+     *            whether values are added instead of replaced
+     * @param single
+     *            whether only the first value is to be set as a single value
+     * @param att
+     *            name of the attribute to change
+     * @param values
+     *            values to set or add
+     */
+    public RuleChange(boolean ldap, boolean add, boolean single, String att,
+        List<Object> values)
+    {
+        fLdap = ldap;
+        fAdd = add;
+        fSingle = single;
+        fAtt = att;
+        fValues = values;
+    }
+
+    /**
+     * @return whether LDAP or the end point is changed
+     */
+    public boolean isLdap()
+    {
+        return fLdap;
+    }
+
+    /**
+     * @return whether values are added instead of replaced
+     */
+    public boolean isAdd()
+    {
+        return fAdd;
+    }
+
+    /**
+     * @return whether only the first value is to be set as a single value
+     */
+    public boolean isSingle()
+    {
+        return fSingle;
+    }
+
+    /**
+     * @return name of the attribute to change
+     */
+    public String getAtt()
+    {
+        return fAtt;
+    }
+
+    /**
+     * @return values to set or add, empty to remove the attribute
+     */
+    public List<Object> getValues()
+    {
+        return fValues;
+    }
+}
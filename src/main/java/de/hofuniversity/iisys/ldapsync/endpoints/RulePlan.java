@@ -0,0 +1,286 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.util.Fingerprint;
+
+/**
+ * Execution plan compiled once from an end point's list of synchronization
+ * rules. Each rule's direction and operation are resolved to a single action
+ * and the attributes that have to be read on either side are collected, so
+ * that they can be fetched once per user before the steps are executed in the
+ * order the rules were specified. Rules whose combination of direction and
+ * operation is not supported are dropped, as are rules in both directions
+ * with transforms, since transformed values can't be converted back.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class RulePlan
+{
+    private final List<RuleStep> fSteps;
+    private final Set<String> fLdapReads, fOwnReads;
+    private final boolean fVersioned, fMerged;
+    private final String fFingerprint;
+
+    /**
+     * Compiles an execution plan for the given rules. Throws a
+     * NullPointerException if the list of rules is null.
+     * 
+     * @param rules
+     *            rules to compile
+     */
+    public RulePlan(List<SyncRule> rules)
+    {
+        if (rules == null)
+        {
+            throw new NullPointerException("synchronization rules were null");
+        }
+
+        final List<RuleStep> steps = new ArrayList<RuleStep>();
+        final Set<String> ldapReads = new LinkedHashSet<String>();
+        final Set<String> ownReads = new LinkedHashSet<String>();
+
+        boolean versioned = false;
+        boolean merged = false;
+        final Fingerprint print = new Fingerprint();
+
+        RuleAction action = null;
+        for (SyncRule rule : rules)
+        {
+            // transforms can't be reversed for values copied back to LDAP
+            if (rule.getDirection() == SyncDirections.BOTH
+                && !rule.getTransforms().isEmpty())
+            {
+                System.err.println("transforms are not supported for rules in"
+                    + " both directions: " + rule.getLdapProp() + " - "
+                    + rule.getEndPointProp());
+                continue;
+            }
+
+            action = compile(rule);
+
+            if (action == null)
+            {
+                System.err.println("unsupported rule: " + rule.getDirection()
+                    + " " + rule.getOperation() + " for "
+                    + rule.getLdapProp() + " - " + rule.getEndPointProp());
+                continue;
+            }
+
+            steps.add(new RuleStep(action, rule));
+            print.update(action);
+            print.update(rule.getLdapProp());
+            print.update(rule.getEndPointProp());
+            for (String transform : rule.getTransforms())
+            {
+                print.update(transform);
+            }
+            versioned |= isVersioned(action);
+            merged |= action == RuleAction.BOTH_MERGE
+                || action == RuleAction.BOTH_MERGE_LIST;
+
+            if (readsLdap(action))
+            {
+                ldapReads.add(rule.getLdapProp());
+            }
+            if (readsOwn(action))
+            {
+                ownReads.add(rule.getEndPointProp());
+            }
+        }
+
+        fSteps = Collections.unmodifiableList(steps);
+        fLdapReads = Collections.unmodifiableSet(ldapReads);
+        fOwnReads = Collections.unmodifiableSet(ownReads);
+        fVersioned = versioned;
+        fMerged = merged;
+        fFingerprint = print.toString();
+    }
+
+    private RuleAction compile(SyncRule rule)
+    {
+        RuleAction action = null;
+
+        switch (rule.getDirection())
+        {
+            case TO_LDAP:
+                switch (rule.getOperation())
+                {
+                    case ADD_TO_LIST:
+                        action = RuleAction.TO_LDAP_ADD;
+                        break;
+                    case COPY:
+                        action = RuleAction.TO_LDAP_COPY;
+                        break;
+                    case COPY_FIRST_ELEMENT:
+                        action = RuleAction.TO_LDAP_COPY_FIRST;
+                        break;
+                    case COPY_IF_NULL:
+                        action = RuleAction.TO_LDAP_COPY_IF_NULL;
+                        break;
+                    case COPY_ON_CREATE:
+                        action = RuleAction.TO_LDAP_COPY_ON_CREATE;
+                        break;
+                    case COPY_IF_NEWER:
+                        action = RuleAction.TO_LDAP_COPY_IF_NEWER;
+                        break;
+                    default:
+                        break;
+                }
+                break;
+
+            case FROM_LDAP:
+                switch (rule.getOperation())
+                {
+                    case ADD_TO_LIST:
+                        action = RuleAction.FROM_LDAP_ADD;
+                        break;
+                    case COPY:
+                        action = RuleAction.FROM_LDAP_COPY;
+                        break;
+                    case COPY_FIRST_ELEMENT:
+                        action = RuleAction.FROM_LDAP_COPY_FIRST;
+                        break;
+                    case COPY_IF_NULL:
+                        action = RuleAction.FROM_LDAP_COPY_IF_NULL;
+                        break;
+                    case COPY_ON_CREATE:
+                        action = RuleAction.FROM_LDAP_COPY_ON_CREATE;
+                        break;
+                    case COPY_IF_NEWER:
+                        action = RuleAction.FROM_LDAP_COPY_IF_NEWER;
+                        break;
+                    default:
+                        break;
+                }
+                break;
+
+            case BOTH:
+                switch (rule.getOperation())
+                {
+                    case ADD_TO_LIST:
+                        action = RuleAction.BOTH_MERGE_LIST;
+                        break;
+                    case COPY:
+                        action = RuleAction.BOTH_MERGE;
+                        break;
+                    case COPY_IF_NULL:
+                        action = RuleAction.BOTH_COPY_IF_NULL;
+                        break;
+                    case COPY_ON_CREATE:
+                        action = RuleAction.BOTH_COPY_ON_CREATE;
+                        break;
+                    case COPY_IF_NEWER:
+                        action = RuleAction.BOTH_COPY_IF_NEWER;
+                        break;
+                    default:
+                        break;
+                }
+                break;
+        }
+
+        return action;
+    }
+
+    private boolean isVersioned(RuleAction action)
+    {
+        return action == RuleAction.TO_LDAP_COPY_IF_NEWER
+            || action == RuleAction.FROM_LDAP_COPY_IF_NEWER
+            || action == RuleAction.BOTH_COPY_IF_NEWER;
+    }
+
+    private boolean readsLdap(RuleAction action)
+    {
+        boolean reads = true;
+
+        switch (action)
+        {
+            case TO_LDAP_ADD:
+            case TO_LDAP_COPY:
+            case TO_LDAP_COPY_FIRST:
+            case TO_LDAP_COPY_ON_CREATE:
+                reads = false;
+                break;
+
+            default:
+                break;
+        }
+
+        return reads;
+    }
+
+    private boolean readsOwn(RuleAction action)
+    {
+        boolean reads = true;
+
+        switch (action)
+        {
+            case FROM_LDAP_ADD:
+            case FROM_LDAP_COPY:
+            case FROM_LDAP_COPY_FIRST:
+            case FROM_LDAP_COPY_ON_CREATE:
+                reads = false;
+                break;
+
+            default:
+                break;
+        }
+
+        return reads;
+    }
+
+    /**
+     * @return whether any step tracks the versions of values
+     */
+    public boolean isVersioned()
+    {
+        return fVersioned;
+    }
+
+    /**
+     * @return whether any step merges values using a base
+     */
+    public boolean isMerged()
+    {
+        return fMerged;
+    }
+
+    /**
+     * @return fingerprint of the plan's steps
+     */
+    public String getFingerprint()
+    {
+        return fFingerprint;
+    }
+
+    /**
+     * @return steps to execute for each user in the order given
+     */
+    public List<RuleStep> getSteps()
+    {
+        return fSteps;
+    }
+
+    /**
+     * @return names of LDAP attributes read by the plan
+     */
+    public Set<String> getLdapReads()
+    {
+        return fLdapReads;
+    }
+
+    /**
+     * @return names of end point attributes read by the plan
+     */
+    public Set<String> getOwnReads()
+    {
+        return fOwnReads;
+    }
+}
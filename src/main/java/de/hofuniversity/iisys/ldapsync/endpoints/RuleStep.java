@@ -0,0 +1,94 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.transform.TransformChain;
+
+/**
+ * Single step of a compiled rule execution plan, linking the action to
+ * execute with the attributes it concerns.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class RuleStep
+{
+    private final RuleAction fAction;
+    private final SyncRule fRule;
+
+    /**
+     * Creates a step executing the given action for the given rule. Throws a
+     * NullPointerException if any parameter is null.
+     * 
+     * @param action
+     *            action to execute
+     * @param rule
+     *            rule the step was compiled from
+     */
+    public RuleStep(RuleAction action, SyncRule rule)
+    {
+        if (action == null)
+        {
+            throw new NullPointerException("action was null");
+        }
+        if (rule == null)
+        {
+            throw new NullPointerException("rule was null");
+        }
+
+        fAction = action;
+        fRule = rule;
+    }
+
+    /**
+     * @return action to execute
+     */
+    public RuleAction getAction()
+    {
+        return fAction;
+    }
+
+    /**
+     * @return rule the step was compiled from
+     */
+    public SyncRule getRule()
+    {
+        return fRule;
+    }
+
+    /**
+     * @return whether values are copied from the end point to LDAP
+     */
+    public boolean isToLdap()
+    {
+        return fRule.getDirection() == SyncDirections.TO_LDAP;
+    }
+
+    /**
+     * Returns the transforms to apply to the values the step copies, which are
+     * the end point's values for rules towards LDAP and LDAP's values
+     * otherwise.
+     * 
+     * @return chain of transforms, possibly empty
+     */
+    public TransformChain getTransform()
+    {
+        return fRule.getTransform();
+    }
+
+    /**
+     * @return name of the attribute in LDAP
+     */
+    public String getLdapAtt()
+    {
+        return fRule.getLdapProp();
+    }
+
+    /**
+     * @return name of the attribute at the end point
+     */
+    public String getOwnAtt()
+    {
+        return fRule.getEndPointProp();
+    }
+}
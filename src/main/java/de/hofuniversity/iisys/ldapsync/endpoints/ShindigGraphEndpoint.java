@@ -1,24 +1,43 @@
 package de.hofuniversity.iisys.ldapsync.endpoints;
 
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import de.hofuniversity.iisys.ldapsync.LdapBuffer;
 import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
 import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.util.HttpTransport;
+import de.hofuniversity.iisys.ldapsync.util.IRequestBody;
 import de.hofuniversity.iisys.ldapsync.util.JsonObject;
+import de.hofuniversity.iisys.ldapsync.util.JsonPath;
+import de.hofuniversity.iisys.ldapsync.util.JsonStreamReader;
+import de.hofuniversity.iisys.ldapsync.util.PictureStore;
+import de.hofuniversity.iisys.ldapsync.util.ResponseCache;
+import de.hofuniversity.iisys.ldapsync.util.StateStore;
+import de.hofuniversity.iisys.ldapsync.util.WriteThrottle;
 
 /**
  * End point implementation for the Apache Shindig graph back-end.
@@ -33,42 +52,72 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
     private static final String HOST = "host";
     private static final String USER_ID = "user";
     private static final String FIELDS = "fields";
-    
-    
-    
+    private static final String PAGE_SIZE = "page-size";
+    private static final String PAGE_THREADS = "page-threads";
+    private static final String CHUNK_SIZE = "write-chunk-size";
+    private static final String WRITE_THREADS = "write-threads";
+    private static final String WRITE_RETRIES = "write-retries";
+    private static final String CONNECT_TIMEOUT = "connect-timeout";
+    private static final String READ_TIMEOUT = "read-timeout";
+    private static final String GZIP_REQUESTS = "gzip-requests";
+    private static final String HTTP_CACHE = "http-cache";
+
+    private static final int DEF_CHUNK_SIZE = 100;
+    private static final int DEF_WRITE_THREADS = 2;
+    private static final int DEF_WRITE_RETRIES = 2;
+    private static final long RETRY_DELAY = 1000;
+    private static final int DEF_CONNECT_TIMEOUT = 10000;
+    private static final int DEF_READ_TIMEOUT = 60000;
+    private static final int DEF_PIC_THREADS = 2;
+
+    private static final String ERROR_PROP = "error";
+    private static final String CODE_PROP = "code";
+
+    // error code of creations of users that already exist
+    private static final String CONFLICT = "409";
+
     private static final String PIC_FOLDER = "pic-folder";
     private static final String PIC_URL = "pic-url";
-    
-    //special LDAP attributes and shindig properties
+    private static final String PIC_THREADS = "pic-threads";
+    private static final String PIC_SIZE = "pic-size";
+
+    // prefix of properties mapping attributes to paths, e.g. "path-title"
+    private static final String PATH_PREFIX = "path-";
+
+    //special attributes, stored as pictures
     private static final String THUMB_ATTR = "thumbnail";
-    private static final String THUMB_PROP = "thumbnailUrl";
-    
-    private static final String MAIL_PROP = "emails";
-    private static final String PHONE_PROP = "phoneNumbers";
-    
-    private static final String ORG_ATTR = "organization";
-    private static final String ORG_PROP = "organizations";
-    private static final String ORG_NAME_PROP = "name";
-    
-    private static final String ORG_LOCATION_ATTR = "org_location";
-    private static final String ORG_LOCATION_PROP = "location";
-    
-    private static final String ORG_SITE_ATTR = "org_site";
-    private static final String ORG_SITE_PROP = "site";
-    
-    private static final String JOB_TITLE_ATTR = "job_title";
-    private static final String JOB_TITLE_PROP = "title";
-    
-    //extended model fields
-    private static final String MANAGER_ID_PROP = "managerId";
-    private static final String SECRETARY_ID_PROP = "secretaryId";
-    private static final String DEPARTMENT_PROP = "department";
-    private static final String DEPARTMENT_HEAD_PROP = "departmentHead";
-    private static final String ORG_UNIT_PROP = "orgUnit";
-    
+
+    //paths of special attributes, all others are paths themselves
+    private static final String[][] DEFAULT_PATHS =
+    {
+        { THUMB_ATTR, "thumbnailUrl" },
+        { "emails", "emails[*].value" },
+        { "phoneNumbers", "phoneNumbers[*].value" },
+        { "organization", "organizations[0].name" },
+        { "org_location", "organizations[0].location" },
+        { "org_site", "organizations[0].site" },
+        { "job_title", "organizations[0].title" },
+        //extended model fields
+        { "managerId", "organizations[0].managerId" },
+        { "secretaryId", "organizations[0].secretaryId" },
+        { "department", "organizations[0].department" },
+        { "departmentHead", "organizations[0].departmentHead" },
+        { "orgUnit", "organizations[0].orgUnit" }
+    };
+
+    // LDAP attributes new users are created with and where they are set
+    private static final String[][] CREATE_ATTS =
+    {
+        { "cn", "displayName" },
+        { "cn", "name.formatted" },
+        { "givenName", "name.givenName" },
+        { "sn", "name.familyName" }
+    };
+
 
     private static final String ALL_FRAGMENT = "rpc?method=user.getAll";
-    private static final String COUNT_FRAGMENT = "&count=0";
+    private static final String COUNT_FRAGMENT = "&count=";
+    private static final String START_FRAGMENT = "&startIndex=";
     private static final String FIELDS_FRAGMENT = "&fields=";
 
     private static final String CREATE_METHOD = "user.create";
@@ -76,11 +125,26 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
     private static final String DELETE_METHOD = "user.delete";
 
     private final String fHost, fUserId, fFields;
-    private final String fPicFolder, fPicUrl;
+    private final int fPageSize, fPageThreads;
+    private final int fChunkSize, fWriteThreads, fWriteRetries;
+    private final HttpTransport fTransport;
+    private final ResponseCache fCache;
+    private final PictureStore fPictures;
+    private final Map<String, JsonPath> fPaths;
 
     private final Map<String, JsonObject> fUsers;
+
+    // fingerprints of users as they were read
+    private final Map<String, String> fPrints;
     private final Set<String> fUserNames, fCreatedUsers, fDeletedUsers;
-    private final Set<JsonObject> fChangedUsers;
+
+    // picture URLs of users before they were changed, null if there was none
+    private final Map<String, String> fOldPictures;
+
+    // single LDAP values last set in lists, by user and attribute, which
+    // are replaced by the next value instead of other elements
+    private final StateStore fListValues;
+    private final Map<String, Map<String, String>> fPendingListValues;
 
     /**
      * Creates an end point connecting to the shindig graph back-end specified
@@ -126,376 +190,687 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
         {
             throw new NullPointerException("fields to fetch were null");
         }
-        
-        fPicFolder = config.getProperties().get(PIC_FOLDER);
-        fPicUrl = config.getProperties().get(PIC_URL);
+
+        // pictures are only published if there is a folder for them
+        String picFolder = config.getProperties().get(PIC_FOLDER);
+        if (picFolder != null && !picFolder.isEmpty())
+        {
+            String picUrl = config.getProperties().get(PIC_URL);
+            if (picUrl == null)
+            {
+                picUrl = "";
+            }
+
+            fPictures = new PictureStore(picFolder, picUrl, getIntProperty(
+                config, PIC_THREADS, DEF_PIC_THREADS), getIntProperty(config,
+                PIC_SIZE, 0));
+        } else
+        {
+            fPictures = null;
+        }
+
+        // all users in a single request by default
+        fPageSize = getIntProperty(config, PAGE_SIZE, 0);
+        fPageThreads = Math.max(1, getIntProperty(config, PAGE_THREADS, 1));
+
+        fChunkSize = getIntProperty(config, CHUNK_SIZE, DEF_CHUNK_SIZE);
+        fWriteThreads = Math.max(1, getIntProperty(config, WRITE_THREADS,
+            DEF_WRITE_THREADS));
+        fWriteRetries = getIntProperty(config, WRITE_RETRIES,
+            DEF_WRITE_RETRIES);
+
+        /*
+         * connections are only reused by up to "http.maxConnections" threads,
+         * which has to be raised on the command line for more threads
+         */
+        fTransport = new HttpTransport(getIntProperty(config,
+            CONNECT_TIMEOUT, DEF_CONNECT_TIMEOUT), getIntProperty(config,
+            READ_TIMEOUT, DEF_READ_TIMEOUT), Boolean.parseBoolean(config
+            .getProperties().get(GZIP_REQUESTS)));
+
+        // revalidate cached user lists if there is a folder to keep them in
+        String stateFolder = config.getStateFolder();
+        if (stateFolder != null && !stateFolder.isEmpty()
+            && !"false".equalsIgnoreCase(config.getProperties().get(
+                HTTP_CACHE)))
+        {
+            fCache = new ResponseCache(fTransport, new File(stateFolder,
+                config.getName() + "-cache").getPath(), StateStore.open(
+                stateFolder, config.getName() + "-cache"));
+        } else
+        {
+            fCache = null;
+        }
+
+        fPaths = compilePaths(config);
+        fListValues = StateStore.open(stateFolder, config.getName()
+            + "-list-values");
+        fPendingListValues = new HashMap<String, Map<String, String>>();
 
         fUsers = new HashMap<String, JsonObject>();
+        fPrints = new HashMap<String, String>();
         fUserNames = new HashSet<String>();
         fCreatedUsers = new HashSet<String>();
         fDeletedUsers = new HashSet<String>();
-        fChangedUsers = new HashSet<JsonObject>();
+        fOldPictures = new HashMap<String, String>();
+    }
+
+    private Map<String, JsonPath> compilePaths(SyncEndpointConfig config)
+    {
+        final Map<String, JsonPath> paths = new HashMap<String, JsonPath>();
+
+        for (String[] path : DEFAULT_PATHS)
+        {
+            paths.put(path[0], JsonPath.compile(path[1]));
+        }
+
+        // configured paths override the default ones
+        for (Entry<String, String> propE : config.getProperties().entrySet())
+        {
+            if (propE.getKey().startsWith(PATH_PREFIX))
+            {
+                paths.put(propE.getKey().substring(PATH_PREFIX.length()),
+                    JsonPath.compile(propE.getValue()));
+            }
+        }
+
+        // all other mapped attributes are paths themselves
+        for (SyncRule rule : config.getMapping())
+        {
+            String att = rule.getEndPointProp();
+            if (att != null && !att.isEmpty() && !paths.containsKey(att))
+            {
+                paths.put(att, JsonPath.compile(att));
+            }
+        }
+
+        return paths;
+    }
+
+    private int getIntProperty(SyncEndpointConfig config, String name,
+        int defValue)
+    {
+        String value = config.getProperties().get(name);
+        if (value == null)
+        {
+            return defValue;
+        }
+
+        return Integer.parseInt(value);
     }
 
     @Override
     protected void preHook()
     {
-        // establish connection, read all users
-        String result = "";
+        // users left over from a failed synchronization
+        fUsers.clear();
+        fPrints.clear();
+        fUserNames.clear();
+        fCreatedUsers.clear();
+        fDeletedUsers.clear();
+        fOldPictures.clear();
+        fPendingListValues.clear();
+
         try
         {
-            URL shindigUrl = new URL(fHost + ALL_FRAGMENT + COUNT_FRAGMENT
-                + FIELDS_FRAGMENT + fFields);
-            HttpURLConnection connection = (HttpURLConnection) shindigUrl
-                .openConnection();
+            if (fPageSize > 0)
+            {
+                readPages();
+            } else
+            {
+                // read all users at once
+                List<JsonObject> page = new ArrayList<JsonObject>();
+                readPage(0, 0, page);
+                addUsers(page);
+            }
+        } catch (Exception e)
+        {
+            // an incomplete set of users would cause creations and overwrites
+            throw new RuntimeException("failed to read users from " + fHost,
+                e);
+        } finally
+        {
+            if (fCache != null)
+            {
+                fCache.save();
+            }
+        }
+    }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                connection.getInputStream()));
+    private void readPages() throws Exception
+    {
+        // the first page tells how many users there are
+        List<JsonObject> page = new ArrayList<JsonObject>();
+        final int total = readPage(0, fPageSize, page);
+        addUsers(page);
 
-            String line = reader.readLine();
-            while (line != null)
+        if (total < 0)
+        {
+            // unknown total, read until a page is empty since the server may
+            // return fewer users per page than requested
+            int start = 0;
+            while (!page.isEmpty())
             {
-                result += line;
-                line = reader.readLine();
+                start += page.size();
+                page = new ArrayList<JsonObject>();
+                readPage(start, fPageSize, page);
+                addUsers(page);
             }
+            return;
+        }
 
-            reader.close();
-        } catch (Exception e)
+        // the server may cap the number of users per page
+        final int size = Math.min(fPageSize, page.size());
+        if (size == 0)
         {
-            e.printStackTrace();
+            return;
         }
 
-        // build a set of available users
-        int start = result.indexOf("list") + 7;
-        int stop = start - 2;
-        final int lastStop = result.lastIndexOf("}],");
-        String objString = null;
-        JsonObject person = null;
-        String name = null;
-        do
+        // fetch the remaining pages concurrently, merging them in order; a
+        // failed page aborts the whole read
+        final ExecutorService executor = Executors
+            .newFixedThreadPool(fPageThreads);
+        try
         {
-            stop = JsonObject.getCloseBracketIndex(result, start);
+            final LinkedList<Future<List<JsonObject>>> pending =
+                new LinkedList<Future<List<JsonObject>>>();
 
-            if (stop + 1 < result.length())
+            int start = size;
+            while (start < total || !pending.isEmpty())
             {
-                objString = result.substring(start, stop + 1);
+                // keep a bounded number of requests in flight
+                while (start < total && pending.size() < fPageThreads)
+                {
+                    final int pageStart = start;
+                    pending.add(executor.submit(new Callable<List<JsonObject>>()
+                    {
+                        public List<JsonObject> call() throws Exception
+                        {
+                            List<JsonObject> page = new ArrayList<JsonObject>();
+                            readPage(pageStart, size, page);
+                            return page;
+                        }
+                    }));
+                    start += size;
+                }
 
-                person = new JsonObject(objString);
-                name = person.getSingleAttribute(ID_ATT);
-                fUserNames.add(name);
-                fUsers.put(name, person);
+                addUsers(pending.removeFirst().get());
             }
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
 
-            start = stop + 2;
-        } while (stop < lastStop);
+    private int readPage(int start, int count, List<JsonObject> page)
+        throws Exception
+    {
+        // establish connection, read users while they are streamed
+        String url = fHost + ALL_FRAGMENT + COUNT_FRAGMENT + count;
+        if (start > 0)
+        {
+            url += START_FRAGMENT + start;
+        }
+        url += FIELDS_FRAGMENT + fFields;
+
+        // unchanged responses are read from the cache
+        InputStream in = null;
+        if (fCache != null)
+        {
+            in = fCache.get(url);
+        } else
+        {
+            in = fTransport.get(url);
+        }
+
+        // most fields are never read by rules, parse them on demand
+        JsonStreamReader reader = new JsonStreamReader(new InputStreamReader(
+            in, "UTF-8"), true);
+        try
+        {
+            JsonObject person = reader.next();
+            while (person != null)
+            {
+                page.add(person);
+                person = reader.next();
+            }
+
+            reader.drain();
+        } finally
+        {
+            reader.close();
+        }
+
+        return reader.getTotalResults();
+    }
+
+    private void addUsers(List<JsonObject> page)
+    {
+        for (JsonObject person : page)
+        {
+            addUser(person);
+        }
+    }
+
+    private void addUser(JsonObject person)
+    {
+        // build a set of available users
+        String name = person.getSingleAttribute(ID_ATT);
+        if (name != null)
+        {
+            fUserNames.add(name);
+            fUsers.put(name, person);
+
+            // from the text read, before any attribute is parsed or changed
+            fPrints.put(name, person.getFingerprint());
+        }
     }
 
     @Override
     protected void postHook()
     {
-        if (!fChangedUsers.isEmpty() || !fDeletedUsers.isEmpty())
+        // profiles may only link pictures that exist
+        if (fPictures != null)
         {
-            writeChanges();
+            revertPictures(fPictures.await());
         }
 
+        addWrites(writeChanges());
+
         // clear
         fUsers.clear();
+        fPrints.clear();
         fUserNames.clear();
-        fChangedUsers.clear();
         fCreatedUsers.clear();
         fDeletedUsers.clear();
+        fOldPictures.clear();
+    }
+
+    private void revertPictures(Set<String> failed)
+    {
+        final JsonPath path = getPath(THUMB_ATTR);
+
+        for (Entry<String, String> entry : fOldPictures.entrySet())
+        {
+            final JsonObject user = fUsers.get(entry.getKey());
+            final List<String> urls = user != null ? path.get(user) : null;
+            if (urls == null || urls.isEmpty() || !failed.contains(urls.get(0)))
+            {
+                continue;
+            }
+
+            // keep the old picture, the new one is stored again next time
+            if (entry.getValue() != null)
+            {
+                path.setValue(user, entry.getValue());
+            } else
+            {
+                path.remove(user);
+            }
+            addFailedUser(entry.getKey());
+        }
     }
 
-    private void writeChanges()
+    private int writeChanges()
     {
-        String method = null;
-        final StringBuffer buffer = new StringBuffer("[");
+        final Map<String, RpcCall> creates =
+            new LinkedHashMap<String, RpcCall>();
+        final Map<String, RpcCall> updates =
+            new LinkedHashMap<String, RpcCall>();
+        final Map<String, RpcCall> deletes =
+            new LinkedHashMap<String, RpcCall>();
 
-        // collect changes into JSON RPC call batch
+        // collect changes into JSON RPC calls with unique IDs, which are only
+        // serialized while they are sent
         String id = null;
-        String jsonPerson = null;
-        
+
         //create new users with only IDs (so that links can be created)
         for(String userId : fCreatedUsers)
         {
             JsonObject user = new JsonObject();
             user.setSingleAttribute("id", userId);
-            method = CREATE_METHOD;
-            jsonPerson = user.toString();
-            
-            buffer.append("{\"method\":\"" + method + "\",\"id\":\"" + userId);
-            buffer.append("\",\"params\":{\"userId\":\"" + userId + "\",");
-            buffer.append("\"person\":" + jsonPerson + "}},");
+
+            creates.put("create:" + userId, new RpcCall(CREATE_METHOD, userId,
+                user, null));
         }
-        
-        //update changed users (including new)
-        for (JsonObject user : fChangedUsers)
+
+        //update changed users (including new) with their changed fields
+        final Set<String> included = Collections.singleton(ID_ATT);
+        for (JsonObject user : fUsers.values())
         {
+            if (!user.isModified())
+            {
+                continue;
+            }
             id = user.getSingleAttribute(ID_ATT);
-            jsonPerson = user.toString();
-
-            method = UPDATE_METHOD;
 
-            buffer.append("{\"method\":\"" + method + "\",\"id\":\"" + id);
-            buffer.append("\",\"params\":{\"userId\":\"" + id + "\",");
-            buffer.append("\"person\":" + jsonPerson + "}},");
+            updates.put("update:" + id, new RpcCall(UPDATE_METHOD, id, user,
+                included));
         }
 
         // queue deletion requests
         for (String name : fDeletedUsers)
         {
-            buffer.append("{\"method\":\"" + DELETE_METHOD + "\",\"id\":\""
-                + name);
-            buffer.append("\",\"params\":{\"userId\":\"" + name + "\"}},");
+            deletes.put("delete:" + name, new RpcCall(DELETE_METHOD, name,
+                null, null));
         }
 
-        buffer.setCharAt(buffer.length() - 1, ']');
+        if (creates.isEmpty() && updates.isEmpty() && deletes.isEmpty())
+        {
+            return 0;
+        }
 
-        // open connection and send batch
+        // users have to exist before they are updated
+        int written = 0;
+        final ExecutorService executor = Executors
+            .newFixedThreadPool(fWriteThreads);
         try
         {
-            URL shindigUrl = new URL(fHost + "rpc");
-            HttpURLConnection connection = (HttpURLConnection) shindigUrl
-                .openConnection();
-
-            connection.setRequestMethod("POST");
-            connection.setDoInput(true);
-            connection.setDoOutput(true);
-            connection.setUseCaches(false);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Content-Length",
-                String.valueOf(buffer.length()));
-
-            OutputStreamWriter writer = new OutputStreamWriter(
-                connection.getOutputStream());
-            writer.write(buffer.toString());
-            writer.flush();
+            Set<String> failed = writeCalls(creates, executor);
+            written += creates.size() - failed.size();
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                connection.getInputStream()));
-
-            String line = reader.readLine();
-            while (line != null)
+            // users that could not be created can't be updated either
+            for (String userId : failed)
             {
-                line = reader.readLine();
+                updates.remove("update:" + userId);
             }
 
-            reader.close();
-        } catch (Exception e)
+            failed = writeCalls(updates, executor);
+            written += updates.size() - failed.size();
+
+            failed = writeCalls(deletes, executor);
+            written += deletes.size() - failed.size();
+        } finally
         {
-            e.printStackTrace();
+            executor.shutdownNow();
         }
+
+        return written;
     }
 
-    @Override
-    protected List<Object> getValues(String name, String att)
+    private Set<String> writeCalls(Map<String, RpcCall> calls,
+        ExecutorService executor)
     {
-        List<Object> values = null;
+        final Set<String> failedUsers = new HashSet<String>();
 
-        JsonObject user = fUsers.get(name);
-        if (user != null)
+        // send all calls, then retry failed ones
+        Map<String, RpcCall> remaining = calls;
+        for (int attempt = 0; attempt <= fWriteRetries && !remaining.isEmpty();
+            ++attempt)
         {
-            String value = user.getSingleAttribute(att);
-
-            if (value != null)
-            {
-                values = new ArrayList<Object>();
-                values.add(value);
-            } else
+            if (attempt > 0)
             {
-                List<String> valList = user.getListAttribute(att);
+                System.err.println("retrying " + remaining.size()
+                    + " failed calls");
 
-                if (valList != null)
+                try
                 {
-                    values = new ArrayList<Object>(valList);
+                    Thread.sleep(RETRY_DELAY * attempt);
+                } catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
+
+            final Set<String> failed = sendChunks(remaining, executor);
+
+            final Map<String, RpcCall> retry =
+                new LinkedHashMap<String, RpcCall>();
+            for (String callId : failed)
+            {
+                retry.put(callId, remaining.get(callId));
+            }
+            remaining = retry;
         }
 
-        return values;
+        if (!remaining.isEmpty())
+        {
+            System.err.println("failed to write: " + remaining.keySet());
+
+            // keep the users' state, so that the changes are recomputed
+            for (RpcCall call : remaining.values())
+            {
+                failedUsers.add(call.getUserId());
+                addFailedUser(call.getUserId());
+            }
+        }
+
+        return failedUsers;
     }
 
-    @Override
-    protected void setAttribute(String name, String att, Object val)
+    private Set<String> sendChunks(final Map<String, RpcCall> calls,
+        ExecutorService executor)
     {
-        JsonObject user = fUsers.get(name);
-        if (user != null)
+        final Set<String> failed = new HashSet<String>();
+
+        // split into chunks
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = null;
+        for (String callId : calls.keySet())
         {
-            //handle special attributes
-            if(att.equals(THUMB_ATTR))
-            {
-                byte[] picData = (byte[]) val;
-                String url = storePicture(name, picData);
-                
-                user.setSingleAttribute(THUMB_PROP, url);
-                fChangedUsers.add(user);
-            }
-            else if(att.equals(MAIL_PROP))
+            if (chunk == null || fChunkSize > 0 && chunk.size() >= fChunkSize)
             {
-                //create fake list if list does not contain address
-                List<JsonObject> mails = user.getObjectList(MAIL_PROP);
-                
-                if(mails == null)
-                {
-                    mails = new ArrayList<JsonObject>();
-                }
-                
-                if(mails.isEmpty())
-                {
-                    JsonObject mail = new JsonObject();
-                    mail.setSingleAttribute("value", val.toString());
-                    mails.add(mail);
-                    
-                    user.setObjectList(MAIL_PROP, mails);
-                }
+                chunk = new ArrayList<String>();
+                chunks.add(chunk);
             }
-            else if(att.equals(PHONE_PROP))
+            chunk.add(callId);
+        }
+
+        // send chunks concurrently
+        final List<Future<Set<String>>> results =
+            new ArrayList<Future<Set<String>>>();
+        for (final List<String> ids : chunks)
+        {
+            results.add(executor.submit(new Callable<Set<String>>()
             {
-                //create fake list if list does not contain number
-                List<JsonObject> phones = user.getObjectList(PHONE_PROP);
-                
-                if(phones == null)
+                public Set<String> call() throws Exception
                 {
-                    phones = new ArrayList<JsonObject>();
+                    return sendChunk(ids, calls);
                 }
-                
-                if(phones.isEmpty())
-                {
-                    JsonObject phone = new JsonObject();
-                    phone.setSingleAttribute("value", val.toString());
-                    phones.add(phone);
-                    
-                    user.setObjectList(PHONE_PROP, phones);
-                }
-            }
-            //TODO: refactor to hashset-based check + set-based name lookup
-            else if(att.equals(ORG_ATTR))
-            {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(ORG_NAME_PROP, val.toString());
-            }
-            else if(att.equals(ORG_LOCATION_ATTR))
-            {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(ORG_LOCATION_PROP, val.toString());
-            }
-            else if(att.equals(ORG_SITE_ATTR))
+            }));
+        }
+
+        for (int i = 0; i < results.size(); ++i)
+        {
+            try
             {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(ORG_SITE_PROP, val.toString());
-            }
-            else if(att.equals(JOB_TITLE_ATTR))
+                failed.addAll(results.get(i).get());
+            } catch (Exception e)
             {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(JOB_TITLE_PROP, val.toString());
+                e.printStackTrace();
+                failed.addAll(chunks.get(i));
             }
-            else if(att.equals(MANAGER_ID_PROP))
+        }
+
+        return failed;
+    }
+
+    private Set<String> sendChunk(final List<String> ids,
+        final Map<String, RpcCall> calls)
+    {
+        // calls only count as applied if their result says so
+        final Set<String> failed = new HashSet<String>(ids);
+
+        // batch is serialized while it is sent, bytes are throttled as written
+        final WriteThrottle throttle = getThrottle();
+        final IRequestBody batch = new IRequestBody()
+        {
+            public void writeTo(OutputStream out) throws IOException
             {
-                //extract uid from the ldap path given
-                //TODO: only works for our case
-                String managerId = val.toString();
-                if(managerId.indexOf(',') > 0)
+                final Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(new ThrottledStream(out, throttle),
+                        "UTF-8"));
+
+                writer.write('[');
+                for (int i = 0; i < ids.size(); ++i)
                 {
-                    //get only uid property
-                    managerId = managerId.substring(0, managerId.indexOf(','));
+                    if (i > 0)
+                    {
+                        writer.write(',');
+                    }
+                    calls.get(ids.get(i)).writeTo(writer, ids.get(i));
                 }
-                if(managerId.indexOf('=') > 0)
+                writer.write(']');
+                writer.flush();
+            }
+        };
+
+        // open connection and send batch
+        try
+        {
+            throttle.acquire(ids.size(), 0);
+
+            // collect calls that returned without an error
+            final Set<String> sent = new HashSet<String>(ids);
+            JsonStreamReader reader = new JsonStreamReader(
+                new InputStreamReader(fTransport.post(fHost + "rpc",
+                    "application/json", batch), "UTF-8"));
+            try
+            {
+                JsonObject result = reader.next();
+
+                // anything but an array of results fails the whole chunk
+                if (result != null && !reader.isArray())
                 {
-                    //get only uid value
-                    managerId = managerId.substring(
-                        managerId.indexOf('=') + 1, managerId.length());
+                    System.err.println("response to " + ids.size()
+                        + " calls was not an array of results");
+                    result = null;
                 }
-                
-                if(!managerId.isEmpty()
-                    && !managerId.equals("-"))
+
+                String callId = null;
+                while (result != null)
                 {
-                    JsonObject org = getPrimaryOrganization(user);
-                    org.setSingleAttribute(MANAGER_ID_PROP, managerId);
+                    callId = result.getSingleAttribute(ID_ATT);
+                    if (callId == null || !sent.contains(callId))
+                    {
+                        System.err.println("ignoring result of unknown call: "
+                            + result);
+                    } else if (!isFailed(calls.get(callId), result))
+                    {
+                        failed.remove(callId);
+                    }
+                    result = reader.next();
                 }
-            }
-            else if(att.equals(SECRETARY_ID_PROP))
-            {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(SECRETARY_ID_PROP, val.toString());
-            }
-            else if(att.equals(DEPARTMENT_PROP))
-            {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(DEPARTMENT_PROP, val.toString());
-            }
-            else if(att.equals(DEPARTMENT_HEAD_PROP))
+            } finally
             {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(DEPARTMENT_HEAD_PROP, val.toString());
+                reader.close();
             }
-            else if(att.equals(ORG_UNIT_PROP))
-            {
-                JsonObject org = getPrimaryOrganization(user);
-                org.setSingleAttribute(ORG_UNIT_PROP, val.toString());
-            }
-            //handle simple properties
-            else
-            {
-                String valString = val.toString();
-                String oldVal = user.getSingleAttribute(att);
+        } catch (Exception e)
+        {
+            // calls without a result before the failure are retried
+            e.printStackTrace();
+        }
 
-                if (!valString.equals(oldVal))
-                {
-                    user.setSingleAttribute(att, valString);
-                    fChangedUsers.add(user);
-                }
-            }
+        return failed;
+    }
+
+    private boolean isFailed(RpcCall call, JsonObject result)
+    {
+        final JsonObject error = result.getSubObject(ERROR_PROP);
+        if (error == null)
+        {
+            return result.getSingleAttribute(ERROR_PROP) != null;
         }
+
+        /*
+         * creations are retried if a whole chunk failed, even though the server
+         * may have applied them; users that exist were created by then
+         */
+        return !(CREATE_METHOD.equals(call.getMethod()) && CONFLICT
+            .equals(error.getSingleAttribute(CODE_PROP)));
     }
-    
-    private String storePicture(String name, byte[] data)
+
+    private JsonPath getPath(String att)
     {
-        File file = new File(fPicFolder + name + ".png");
-        String url = null;
-        
-        try
+        JsonPath path = fPaths.get(att);
+
+        // attributes that are not mapped by any rule
+        if (path == null)
         {
-            BufferedOutputStream bos = new BufferedOutputStream(
-                new FileOutputStream(file));
-            
-            bos.write(data);
-            bos.flush();
-            bos.close();
-            
-            url = fPicUrl + name + ".png";
+            path = JsonPath.compile(att);
         }
-        catch(Exception e)
+
+        return path;
+    }
+
+    @Override
+    protected List<Object> getValues(String name, String att)
+    {
+        List<Object> values = null;
+
+        // pictures are compared by their content when stored
+        JsonObject user = fUsers.get(name);
+        if (user != null && !THUMB_ATTR.equals(att))
         {
-            e.printStackTrace();
+            List<String> valList = getPath(att).get(user);
+
+            if (valList != null)
+            {
+                values = new ArrayList<Object>(valList);
+            }
         }
-        
-        return url;
+
+        return values;
     }
-    
-    private JsonObject getPrimaryOrganization(JsonObject user)
+
+    @Override
+    protected void setAttribute(String name, String att, Object val)
     {
-        JsonObject org = null;
-        
-        //get first organization from list
-        List<JsonObject> organizations = user.getObjectList(ORG_PROP);
-        
-        if(organizations == null)
+        JsonObject user = fUsers.get(name);
+        if (user != null)
         {
-            organizations = new ArrayList<JsonObject>();
-            user.setObjectList(ORG_PROP, organizations);
+            // unchanged values are ignored by the user object; pictures that
+            // were already turned into text, like data URLs, are set as such
+            if (THUMB_ATTR.equals(att) && val instanceof byte[])
+            {
+                // content-addressed, unchanged pictures keep their URL
+                if (fPictures != null)
+                {
+                    final JsonPath path = getPath(att);
+                    if (!fOldPictures.containsKey(name))
+                    {
+                        final List<String> urls = path.get(user);
+                        fOldPictures.put(name, urls != null && !urls.isEmpty()
+                            ? urls.get(0) : null);
+                    }
+                    path.setValue(user, fPictures.store((byte[]) val));
+                }
+            } else if (getPath(att).isAllElements())
+            {
+                final String key = name + "|" + att;
+                getPath(att).setValue(user, val.toString(), getListValue(
+                    name, key));
+                setListValue(name, key, val.toString());
+            } else
+            {
+                getPath(att).setValue(user, val.toString());
+            }
         }
-        
-        if(organizations.isEmpty())
+    }
+
+    private String getListValue(String name, String key)
+    {
+        final Map<String, String> pending = fPendingListValues.get(name);
+        if (pending != null && pending.containsKey(key))
         {
-            org = new JsonObject();
-            organizations.add(org);
+            return pending.get(key);
         }
-        else
+
+        return fListValues.get(key);
+    }
+
+    private void setListValue(String name, String key, String value)
+    {
+        Map<String, String> pending = fPendingListValues.get(name);
+        if (pending == null)
         {
-            org = organizations.get(0);
+            pending = new HashMap<String, String>();
+            fPendingListValues.put(name, pending);
         }
-        
-        return org;
+
+        // null values are removed on commit
+        pending.put(key, value);
     }
 
     @Override
@@ -504,29 +879,20 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
         JsonObject user = fUsers.get(name);
         if (user != null)
         {
-            List<String> oldVals = user.getListAttribute(att);
-
-            boolean replace = true;
-            if (oldVals != null)
+            List<String> newVals = new ArrayList<String>();
+            for (Object o : vals)
             {
-                // check for equality
-                if (vals.size() == oldVals.size())
-                {
-                    replace = false;
-
-                }
+                newVals.add(o.toString());
             }
 
-            if (replace)
+            // compare as sets, the order of values doesn't matter
+            JsonPath path = getPath(att);
+            List<String> oldVals = path.get(user);
+            if (oldVals == null || oldVals.size() != newVals.size()
+                || !new HashSet<String>(oldVals).equals(
+                    new HashSet<String>(newVals)))
             {
-                List<String> newVals = new ArrayList<String>();
-                for (Object o : vals)
-                {
-                    newVals.add(o.toString());
-                }
-
-                user.setListAttribute(att, newVals);
-                fChangedUsers.add(user);
+                path.setValues(user, newVals);
             }
         }
     }
@@ -534,8 +900,32 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
     @Override
     protected void addValues(String name, String att, List<Object> vals)
     {
-        // TODO Auto-generated method stub
+        JsonObject user = fUsers.get(name);
+        if (user != null)
+        {
+            // keep the old values, adding those that are missing
+            JsonPath path = getPath(att);
+            List<String> oldVals = path.get(user);
+            List<String> newVals = new ArrayList<String>();
+            if (oldVals != null)
+            {
+                newVals.addAll(oldVals);
+            }
 
+            Set<String> known = new HashSet<String>(newVals);
+            for (Object o : vals)
+            {
+                if (known.add(o.toString()))
+                {
+                    newVals.add(o.toString());
+                }
+            }
+
+            if (oldVals == null || newVals.size() != oldVals.size())
+            {
+                path.setValues(user, newVals);
+            }
+        }
     }
 
     @Override
@@ -544,15 +934,32 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
         JsonObject user = fUsers.get(name);
         if (user != null)
         {
-            boolean changed = user.removeAttribute(att);
+            // tracked by the user object
+            getPath(att).remove(user);
 
-            if (changed)
+            if (getPath(att).isAllElements())
             {
-                fChangedUsers.add(user);
+                setListValue(name, name + "|" + att, null);
             }
         }
     }
 
+    @Override
+    protected String getFingerprint(String name)
+    {
+        return fPrints.get(name);
+    }
+
+    /**
+     * @param name
+     *            name of the user
+     * @return user object read in the current synchronization or null
+     */
+    JsonObject getUser(String name)
+    {
+        return fUsers.get(name);
+    }
+
     @Override
     protected Set<String> getUserNames()
     {
@@ -571,17 +978,18 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
         JsonObject jsonUser = new JsonObject();
         jsonUser.setSingleAttribute(ID_ATT, id);
 
-        jsonUser.setSingleAttribute("displayName", user
-            .getAttributeValues("cn").get(0).toString());
-        jsonUser.setSingleAttribute("name.formatted",
-            user.getAttributeValues("cn").get(0).toString());
-        jsonUser.setSingleAttribute("name.givenName",
-            user.getAttributeValues("givenName").get(0).toString());
-        jsonUser.setSingleAttribute("name.familyName",
-            user.getAttributeValues("sn").get(0).toString());
+        // through the compiled paths, skipping missing attributes
+        List<Object> values = null;
+        for (String[] att : CREATE_ATTS)
+        {
+            values = user.getAttributeValues(att[0]);
+            if (values != null && !values.isEmpty())
+            {
+                getPath(att[1]).setValue(jsonUser, values.get(0).toString());
+            }
+        }
 
         fUsers.put(id, jsonUser);
-        fChangedUsers.add(jsonUser);
     }
 
     @Override
@@ -591,8 +999,128 @@ public class ShindigGraphEndpoint extends ASyncEndpoint
         if (user != null)
         {
             fDeletedUsers.add(name);
-            fChangedUsers.remove(user);
             fCreatedUsers.remove(name);
+
+            // forget all values set in the user's lists
+            for (String key : fListValues.keySet())
+            {
+                if (key.startsWith(name + "|"))
+                {
+                    setListValue(name, key, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void commit()
+    {
+        // list values only move forward once they were written
+        for (Entry<String, Map<String, String>> userE : fPendingListValues
+            .entrySet())
+        {
+            if (isWritten(userE.getKey()))
+            {
+                for (Entry<String, String> valueE : userE.getValue()
+                    .entrySet())
+                {
+                    fListValues.put(valueE.getKey(), valueE.getValue());
+                }
+            }
+        }
+        fListValues.save();
+        fPendingListValues.clear();
+
+        super.commit();
+    }
+
+    /**
+     * JSON RPC call changing a user, which is written directly to the
+     * request instead of being built as a string.
+     */
+    private static class RpcCall
+    {
+        private final String fMethod, fUserId;
+        private final JsonObject fPerson;
+        private final Collection<String> fIncluded;
+
+        /**
+         * @param method
+         *            RPC method to call
+         * @param userId
+         *            ID of the user
+         * @param person
+         *            user object to send or null
+         * @param included
+         *            attributes always sent if only changes are sent, null
+         *            to send the whole object
+         */
+        public RpcCall(String method, String userId, JsonObject person,
+            Collection<String> included)
+        {
+            fMethod = method;
+            fUserId = userId;
+            fPerson = person;
+            fIncluded = included;
+        }
+
+        public String getMethod()
+        {
+            return fMethod;
+        }
+
+        public String getUserId()
+        {
+            return fUserId;
+        }
+
+        public void writeTo(Writer out, String callId) throws IOException
+        {
+            out.write("{\"method\":");
+            JsonObject.writeString(out, fMethod);
+            out.write(",\"id\":");
+            JsonObject.writeString(out, callId);
+            out.write(",\"params\":{\"userId\":");
+            JsonObject.writeString(out, fUserId);
+
+            if (fPerson != null && fIncluded != null)
+            {
+                out.write(",\"person\":");
+                fPerson.writeModifiedTo(out, fIncluded);
+            } else if (fPerson != null)
+            {
+                out.write(",\"person\":");
+                fPerson.writeTo(out);
+            }
+            out.write("}}");
+        }
+    }
+
+    /**
+     * Request stream acquiring the bytes written from the write throttle.
+     */
+    private static class ThrottledStream extends FilterOutputStream
+    {
+        private final WriteThrottle fThrottle;
+
+        public ThrottledStream(OutputStream out, WriteThrottle throttle)
+        {
+            super(out);
+            fThrottle = throttle;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            fThrottle.acquire(0, 1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            fThrottle.acquire(0, len);
+            out.write(b, off, len);
         }
     }
 }
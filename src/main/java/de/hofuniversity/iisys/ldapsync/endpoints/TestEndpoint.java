@@ -11,6 +11,7 @@ import javax.naming.NamingEnumeration;
 import javax.naming.directory.Attribute;
 
 import de.hofuniversity.iisys.ldapsync.LdapBuffer;
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
 import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
 import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
 import de.hofuniversity.iisys.ldapsync.config.SyncOperations;
@@ -80,7 +81,7 @@ public class TestEndpoint implements ISyncEndpoint
         }
     }
 
-    public void sync()
+    public void sync(SyncRequest request)
     {
         Map<String, ILdapUser> users = fLdap.getAllUsers();
 
@@ -114,7 +115,8 @@ public class TestEndpoint implements ISyncEndpoint
         {
             for (Entry<String, Map<String, String>> userE : fUsers.entrySet())
             {
-                if (!users.containsKey(userE.getKey()))
+                if (request.includes(userE.getKey())
+                    && !users.containsKey(userE.getKey()))
                 {
                     System.out.println("create LDAP user " + userE.getKey());
                     fLdap.createUser(userE.getKey());
@@ -137,7 +139,8 @@ public class TestEndpoint implements ISyncEndpoint
 
             for (Entry<String, Map<String, String>> userE : fUsers.entrySet())
             {
-                if (!users.containsKey(userE.getKey()))
+                if (request.includes(userE.getKey())
+                    && !users.containsKey(userE.getKey()))
                 {
                     System.out.println("delete own user " + userE.getKey());
                     toDelete.add(userE.getKey());
@@ -222,6 +225,17 @@ public class TestEndpoint implements ISyncEndpoint
         System.out.println(num + " users");
     }
 
+    public int getWriteCount()
+    {
+        // nothing is written anywhere
+        return 0;
+    }
+
+    public void commit()
+    {
+        // no state is kept between synchronizations
+    }
+
     private void createLocal(String name) throws Exception
     {
         Map<String, String> localUser = new HashMap<String, String>();
@@ -0,0 +1,147 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import de.hofuniversity.iisys.ldapsync.util.Fingerprint;
+
+/**
+ * Three-way merge of the values of an attribute that is synchronized in both
+ * directions. The values in LDAP and at the end point are compared to the
+ * base, the last values both sides agreed on, to determine what each side
+ * changed. Bases are represented by the fingerprints of their values, so
+ * that no values have to be stored between cycles.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ThreeWayMerge
+{
+    private static final String SEPARATOR = ",";
+
+    /**
+     * Merges multi-valued attributes set-wise: values added on either side
+     * are added, values removed on either side are removed. Values kept in
+     * LDAP come first, followed by values only present at the end point, both
+     * in their original order. Duplicates are removed.
+     * 
+     * @param base
+     *            fingerprints of the base values
+     * @param ldapValues
+     *            current LDAP values or null
+     * @param ownValues
+     *            current end point values or null
+     * @return merged values
+     */
+    public static List<Object> mergeSets(Set<String> base,
+        List<Object> ldapValues, List<Object> ownValues)
+    {
+        final Set<String> ldapPrints = getPrints(ldapValues);
+        final Set<String> ownPrints = getPrints(ownValues);
+
+        final List<Object> merged = new ArrayList<Object>();
+        final Set<String> mergedPrints = new HashSet<String>();
+
+        // LDAP values, unless removed at the end point
+        if (ldapValues != null)
+        {
+            for (Object value : ldapValues)
+            {
+                String print = Fingerprint.ofValue(value);
+
+                if (!(base.contains(print) && !ownPrints.contains(print))
+                    && mergedPrints.add(print))
+                {
+                    merged.add(value);
+                }
+            }
+        }
+
+        // end point values, unless removed in LDAP
+        if (ownValues != null)
+        {
+            for (Object value : ownValues)
+            {
+                String print = Fingerprint.ofValue(value);
+
+                if (!(base.contains(print) && !ldapPrints.contains(print))
+                    && mergedPrints.add(print))
+                {
+                    merged.add(value);
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns the fingerprints of all individual values in the given list.
+     * 
+     * @param values
+     *            values or null
+     * @return set of the values' fingerprints
+     */
+    public static Set<String> getPrints(List<Object> values)
+    {
+        final Set<String> prints = new LinkedHashSet<String>();
+
+        if (values != null)
+        {
+            for (Object value : values)
+            {
+                prints.add(Fingerprint.ofValue(value));
+            }
+        }
+
+        return prints;
+    }
+
+    /**
+     * Encodes a set of fingerprints so that it can be stored as a base.
+     * 
+     * @param prints
+     *            fingerprints to encode
+     * @return encoded base
+     */
+    public static String encode(Set<String> prints)
+    {
+        final StringBuilder buffer = new StringBuilder();
+
+        for (String print : prints)
+        {
+            if (buffer.length() > 0)
+            {
+                buffer.append(SEPARATOR);
+            }
+            buffer.append(print);
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes a stored base into a set of fingerprints.
+     * 
+     * @param base
+     *            encoded base or null
+     * @return set of fingerprints, empty for no base
+     */
+    public static Set<String> decode(String base)
+    {
+        final Set<String> prints = new LinkedHashSet<String>();
+
+        if (base != null && !base.isEmpty())
+        {
+            for (String print : base.split(SEPARATOR))
+            {
+                prints.add(print);
+            }
+        }
+
+        return prints;
+    }
+}
@@ -0,0 +1,110 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reconciliation of the users known in LDAP with the users known at an end
+ * point. Both sets of names are sorted once and joined in a single linear
+ * pass, splitting them into users only existing in LDAP, users only existing
+ * at the end point and users existing on both sides, each in ascending order.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class UserJoin
+{
+    private final List<String> fLdapOnly, fOwnOnly, fCommon;
+
+    /**
+     * Joins the given collections of user names. Throws a NullPointerException
+     * if any parameter is null.
+     * 
+     * @param ldapNames
+     *            names of the users in LDAP
+     * @param ownNames
+     *            names of the users at the end point
+     */
+    public UserJoin(Collection<String> ldapNames, Collection<String> ownNames)
+    {
+        if (ldapNames == null)
+        {
+            throw new NullPointerException("LDAP user names were null");
+        }
+        if (ownNames == null)
+        {
+            throw new NullPointerException("end point user names were null");
+        }
+
+        final String[] ldap = ldapNames.toArray(new String[ldapNames.size()]);
+        final String[] own = ownNames.toArray(new String[ownNames.size()]);
+        Arrays.sort(ldap);
+        Arrays.sort(own);
+
+        final List<String> ldapOnly = new ArrayList<String>();
+        final List<String> ownOnly = new ArrayList<String>();
+        final List<String> common = new ArrayList<String>(Math.min(
+            ldap.length, own.length));
+
+        int l = 0;
+        int o = 0;
+        int cmp = 0;
+        while (l < ldap.length && o < own.length)
+        {
+            cmp = ldap[l].compareTo(own[o]);
+
+            if (cmp < 0)
+            {
+                ldapOnly.add(ldap[l++]);
+            } else if (cmp > 0)
+            {
+                ownOnly.add(own[o++]);
+            } else
+            {
+                common.add(ldap[l++]);
+                ++o;
+            }
+        }
+
+        // remainders only exist on one side
+        while (l < ldap.length)
+        {
+            ldapOnly.add(ldap[l++]);
+        }
+        while (o < own.length)
+        {
+            ownOnly.add(own[o++]);
+        }
+
+        fLdapOnly = Collections.unmodifiableList(ldapOnly);
+        fOwnOnly = Collections.unmodifiableList(ownOnly);
+        fCommon = Collections.unmodifiableList(common);
+    }
+
+    /**
+     * @return sorted names of users only existing in LDAP
+     */
+    public List<String> getLdapOnly()
+    {
+        return fLdapOnly;
+    }
+
+    /**
+     * @return sorted names of users only existing at the end point
+     */
+    public List<String> getOwnOnly()
+    {
+        return fOwnOnly;
+    }
+
+    /**
+     * @return sorted names of users existing on both sides
+     */
+    public List<String> getCommon()
+    {
+        return fCommon;
+    }
+}
@@ -0,0 +1,201 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * View of a single user's attribute values in LDAP and at the end point while
+ * an execution plan is applied to it. Values are fetched once and updated with
+ * the values written by executed steps, so that later steps see the projected
+ * state without fetching it again. A value of null means that the attribute
+ * does not exist. The changes to write and the value versions and merge
+ * bases to store are collected in the view until they are applied.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class UserView
+{
+    private final String fName;
+    private final Map<String, List<Object>> fLdapValues, fOwnValues;
+    private final List<RuleChange> fChanges;
+    private final Map<String, String> fVersions, fBases;
+
+    /**
+     * Creates an empty view of the user with the given name.
+     * 
+     * @param name
+     *            name of the user
+     */
+    public UserView(String name)
+    {
+        fName = name;
+        fLdapValues = new HashMap<String, List<Object>>();
+        fOwnValues = new HashMap<String, List<Object>>();
+        fChanges = new ArrayList<RuleChange>();
+        fVersions = new HashMap<String, String>();
+        fBases = new HashMap<String, String>();
+    }
+
+    /**
+     * @return name of the user
+     */
+    public String getName()
+    {
+        return fName;
+    }
+
+    /**
+     * @param att
+     *            name of the LDAP attribute
+     * @return whether values for the attribute are known
+     */
+    public boolean hasLdapValues(String att)
+    {
+        return fLdapValues.containsKey(att);
+    }
+
+    /**
+     * @param att
+     *            name of the LDAP attribute
+     * @return values of the attribute or null
+     */
+    public List<Object> getLdapValues(String att)
+    {
+        return fLdapValues.get(att);
+    }
+
+    /**
+     * @param att
+     *            name of the LDAP attribute
+     * @param values
+     *            values of the attribute or null
+     */
+    public void setLdapValues(String att, List<Object> values)
+    {
+        fLdapValues.put(att, values);
+    }
+
+    /**
+     * @param att
+     *            name of the LDAP attribute
+     * @param values
+     *            values added to the attribute
+     */
+    public void addLdapValues(String att, List<Object> values)
+    {
+        fLdapValues.put(att, concat(fLdapValues.get(att), values));
+    }
+
+    /**
+     * @param att
+     *            name of the end point attribute
+     * @return whether values for the attribute are known
+     */
+    public boolean hasOwnValues(String att)
+    {
+        return fOwnValues.containsKey(att);
+    }
+
+    /**
+     * @param att
+     *            name of the end point attribute
+     * @return values of the attribute or null
+     */
+    public List<Object> getOwnValues(String att)
+    {
+        return fOwnValues.get(att);
+    }
+
+    /**
+     * @param att
+     *            name of the end point attribute
+     * @param values
+     *            values of the attribute or null
+     */
+    public void setOwnValues(String att, List<Object> values)
+    {
+        fOwnValues.put(att, values);
+    }
+
+    /**
+     * @param att
+     *            name of the end point attribute
+     * @param values
+     *            values added to the attribute
+     */
+    public void addOwnValues(String att, List<Object> values)
+    {
+        fOwnValues.put(att, concat(fOwnValues.get(att), values));
+    }
+
+    /**
+     * @param change
+     *            change to apply to the user
+     */
+    public void addChange(RuleChange change)
+    {
+        fChanges.add(change);
+    }
+
+    /**
+     * @return changes to apply to the user in the order they were added
+     */
+    public List<RuleChange> getChanges()
+    {
+        return fChanges;
+    }
+
+    /**
+     * @param key
+     *            key of the version
+     * @param version
+     *            version to store after the changes have been applied
+     */
+    public void setVersion(String key, String version)
+    {
+        fVersions.put(key, version);
+    }
+
+    /**
+     * @return versions to store after the changes have been applied
+     */
+    public Map<String, String> getVersions()
+    {
+        return fVersions;
+    }
+
+    /**
+     * @param key
+     *            key of the merge base
+     * @param base
+     *            merge base to store after the changes have been applied
+     */
+    public void setBase(String key, String base)
+    {
+        fBases.put(key, base);
+    }
+
+    /**
+     * @return merge bases to store after the changes have been applied
+     */
+    public Map<String, String> getBases()
+    {
+        return fBases;
+    }
+
+    private List<Object> concat(List<Object> values, List<Object> added)
+    {
+        List<Object> result = new ArrayList<Object>();
+
+        if (values != null)
+        {
+            result.addAll(values);
+        }
+        result.addAll(added);
+
+        return result;
+    }
+}
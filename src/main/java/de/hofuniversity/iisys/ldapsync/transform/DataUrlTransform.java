@@ -0,0 +1,54 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+
+/**
+ * Transform converting binary values like LDAP photos into data URLs, which
+ * can be used wherever an image URL is expected. The media type is derived
+ * from the data's signature.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class DataUrlTransform implements IValueTransform
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Override
+    public Object transform(Object value)
+    {
+        byte[] data = null;
+        if (value instanceof byte[])
+        {
+            data = (byte[]) value;
+        } else
+        {
+            data = value.toString().getBytes(UTF8);
+        }
+
+        return "data:" + getMediaType(data) + ";base64,"
+            + Base64.getEncoder().encodeToString(data);
+    }
+
+    private String getMediaType(byte[] data)
+    {
+        String type = "application/octet-stream";
+
+        if (data.length > 3 && (data[0] & 0xFF) == 0xFF
+            && (data[1] & 0xFF) == 0xD8)
+        {
+            type = "image/jpeg";
+        } else if (data.length > 3 && (data[0] & 0xFF) == 0x89
+            && data[1] == 'P' && data[2] == 'N' && data[3] == 'G')
+        {
+            type = "image/png";
+        } else if (data.length > 3 && data[0] == 'G' && data[1] == 'I'
+            && data[2] == 'F')
+        {
+            type = "image/gif";
+        }
+
+        return type;
+    }
+}
@@ -0,0 +1,64 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Transform reformatting dates. Without an input pattern, values are parsed
+ * as LDAP generalized time in UTC. Values that can't be parsed are dropped.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class DateTransform implements IValueTransform
+{
+    private static final String GENERALIZED_TIME = "yyyyMMddHHmmss";
+
+    private final DateFormat fInput, fOutput;
+
+    /**
+     * Creates a transform converting dates between the given patterns.
+     * Throws an IllegalArgumentException if a pattern is invalid.
+     * 
+     * @param input
+     *            pattern of the values or null for generalized time
+     * @param output
+     *            pattern to format dates with
+     */
+    public DateTransform(String input, String output)
+    {
+        if (input == null)
+        {
+            fInput = new SimpleDateFormat(GENERALIZED_TIME);
+            fInput.setTimeZone(TimeZone.getTimeZone("UTC"));
+        } else
+        {
+            fInput = new SimpleDateFormat(input);
+        }
+
+        fOutput = new SimpleDateFormat(output);
+    }
+
+    @Override
+    public Object transform(Object value)
+    {
+        String result = null;
+
+        // date formats are not thread-safe
+        synchronized (this)
+        {
+            try
+            {
+                Date date = fInput.parse(value.toString());
+                result = fOutput.format(date);
+            } catch (Exception e)
+            {
+                System.err.println("invalid date: " + value);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+/**
+ * Transform extracting the value of the first relative distinguished name
+ * from a DN, i.e. the UID from "uid=jdoe,ou=Users,dc=example,dc=com". Values
+ * that are not distinguished names are dropped.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class DnUidTransform implements IValueTransform
+{
+    @Override
+    public Object transform(Object value)
+    {
+        final String dn = value.toString();
+
+        final int start = dn.indexOf('=') + 1;
+        if (start <= 0)
+        {
+            return null;
+        }
+
+        // end at the next unescaped separator
+        int end = start;
+        while (end < dn.length() && dn.charAt(end) != ','
+            && dn.charAt(end) != '+')
+        {
+            if (dn.charAt(end) == '\\')
+            {
+                ++end;
+            }
+            ++end;
+        }
+
+        final String uid = dn.substring(start, Math.min(end, dn.length()))
+            .trim();
+        if (uid.isEmpty())
+        {
+            return null;
+        }
+
+        return uid;
+    }
+}
@@ -0,0 +1,22 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+/**
+ * Interface for a conversion of single attribute values that is compiled
+ * once when the configuration is read and then applied to each value a
+ * synchronization rule copies. Implementations must be thread-safe.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public interface IValueTransform
+{
+    /**
+     * Converts a single value. Returns null if the value is to be dropped.
+     * Parameter may not be null.
+     * 
+     * @param value
+     *            value to convert
+     * @return converted value or null
+     */
+    public Object transform(Object value);
+}
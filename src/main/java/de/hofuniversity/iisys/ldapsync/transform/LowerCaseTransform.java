@@ -0,0 +1,18 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+import java.util.Locale;
+
+/**
+ * Transform converting values to lower case.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class LowerCaseTransform implements IValueTransform
+{
+    @Override
+    public Object transform(Object value)
+    {
+        return value.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,47 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Transform extracting a part of a value using a regular expression. If the
+ * expression contains a group, the first group's content is used, otherwise
+ * the whole match. Values that don't match are dropped.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class RegexTransform implements IValueTransform
+{
+    private final Pattern fPattern;
+
+    /**
+     * Compiles the given regular expression. Throws an
+     * IllegalArgumentException if the expression is invalid.
+     * 
+     * @param regex
+     *            regular expression to use
+     */
+    public RegexTransform(String regex)
+    {
+        fPattern = Pattern.compile(regex);
+    }
+
+    @Override
+    public Object transform(Object value)
+    {
+        final Matcher matcher = fPattern.matcher(value.toString());
+
+        if (!matcher.find())
+        {
+            return null;
+        }
+
+        if (matcher.groupCount() > 0)
+        {
+            return matcher.group(1);
+        }
+
+        return matcher.group();
+    }
+}
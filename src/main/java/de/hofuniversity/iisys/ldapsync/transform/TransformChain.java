@@ -0,0 +1,98 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of transforms applied in the order they were added. A value dropped
+ * by any transform is not passed on to the following ones.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class TransformChain implements IValueTransform
+{
+    private final List<IValueTransform> fTransforms;
+
+    /**
+     * Creates an empty chain, passing values through unchanged.
+     */
+    public TransformChain()
+    {
+        fTransforms = new ArrayList<IValueTransform>();
+    }
+
+    /**
+     * Appends a transform to the chain. Parameter may not be null.
+     * 
+     * @param transform
+     *            transform to append
+     */
+    public void add(IValueTransform transform)
+    {
+        if (transform == null)
+        {
+            throw new NullPointerException("transform was null");
+        }
+
+        fTransforms.add(transform);
+    }
+
+    /**
+     * @return whether the chain contains no transforms
+     */
+    public boolean isEmpty()
+    {
+        return fTransforms.isEmpty();
+    }
+
+    @Override
+    public Object transform(Object value)
+    {
+        for (IValueTransform transform : fTransforms)
+        {
+            if (value == null)
+            {
+                break;
+            }
+
+            value = transform.transform(value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Applies the chain to all values of a list, leaving out dropped values.
+     * Returns the list itself if the chain is empty and null for null.
+     * 
+     * @param values
+     *            values to convert or null
+     * @return list of converted values or null
+     */
+    public List<Object> transform(List<Object> values)
+    {
+        if (values == null || fTransforms.isEmpty())
+        {
+            return values;
+        }
+
+        final List<Object> result = new ArrayList<Object>(values.size());
+
+        Object converted = null;
+        for (Object value : values)
+        {
+            if (value != null)
+            {
+                converted = transform(value);
+
+                if (converted != null)
+                {
+                    result.add(converted);
+                }
+            }
+        }
+
+        return result;
+    }
+}
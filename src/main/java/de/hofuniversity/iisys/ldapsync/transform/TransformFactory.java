@@ -0,0 +1,73 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+/**
+ * Factory compiling textual transform specifications from the configuration
+ * into transforms. Supported are "dn_uid", "lowercase", "trim",
+ * "regex:&lt;pattern&gt;", "date:[&lt;input pattern&gt;|]&lt;output
+ * pattern&gt;" and "data_url".
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class TransformFactory
+{
+    private static final String DN_UID = "dn_uid";
+    private static final String LOWERCASE = "lowercase";
+    private static final String TRIM = "trim";
+    private static final String REGEX = "regex:";
+    private static final String DATE = "date:";
+    private static final String DATA_URL = "data_url";
+
+    /**
+     * Compiles the given specification into a transform. Throws an
+     * IllegalArgumentException if the specification is unknown or invalid.
+     * 
+     * @param spec
+     *            specification of the transform
+     * @return compiled transform
+     */
+    public static IValueTransform compile(String spec)
+    {
+        if (spec == null)
+        {
+            throw new NullPointerException("transform specification was null");
+        }
+
+        IValueTransform transform = null;
+
+        if (spec.equals(DN_UID))
+        {
+            transform = new DnUidTransform();
+        } else if (spec.equals(LOWERCASE))
+        {
+            transform = new LowerCaseTransform();
+        } else if (spec.equals(TRIM))
+        {
+            transform = new TrimTransform();
+        } else if (spec.startsWith(REGEX))
+        {
+            transform = new RegexTransform(spec.substring(REGEX.length()));
+        } else if (spec.startsWith(DATE))
+        {
+            String patterns = spec.substring(DATE.length());
+            int sep = patterns.indexOf('|');
+
+            if (sep < 0)
+            {
+                transform = new DateTransform(null, patterns);
+            } else
+            {
+                transform = new DateTransform(patterns.substring(0, sep),
+                    patterns.substring(sep + 1));
+            }
+        } else if (spec.equals(DATA_URL))
+        {
+            transform = new DataUrlTransform();
+        } else
+        {
+            throw new IllegalArgumentException("unknown transform: " + spec);
+        }
+
+        return transform;
+    }
+}
@@ -0,0 +1,24 @@
+package de.hofuniversity.iisys.ldapsync.transform;
+
+/**
+ * Transform removing leading and trailing whitespace, dropping values that
+ * are empty afterwards.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class TrimTransform implements IValueTransform
+{
+    @Override
+    public Object transform(Object value)
+    {
+        final String trimmed = value.toString().trim();
+
+        if (trimmed.isEmpty())
+        {
+            return null;
+        }
+
+        return trimmed;
+    }
+}
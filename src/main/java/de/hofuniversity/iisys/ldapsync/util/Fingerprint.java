@@ -0,0 +1,138 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Content hash over a sequence of attribute values, used to detect whether
+ * values changed between synchronization cycles without storing them. Binary
+ * values are hashed as they are, all other values by their string
+ * representation. Values are length-prefixed so that different splits of the
+ * same characters result in different fingerprints.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class Fingerprint
+{
+    /**
+     * Fingerprint of a missing or empty list of values.
+     */
+    public static final String EMPTY = "";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest fDigest;
+
+    private int fCount;
+
+    /**
+     * Computes the fingerprint of the given list of values.
+     * 
+     * @param values
+     *            values to hash or null
+     * @return fingerprint of the values
+     */
+    public static String of(List<Object> values)
+    {
+        if (values == null || values.isEmpty())
+        {
+            return EMPTY;
+        }
+
+        Fingerprint print = new Fingerprint();
+        for (Object value : values)
+        {
+            print.update(value);
+        }
+
+        return print.toString();
+    }
+
+    /**
+     * Computes the fingerprint of a single value.
+     * 
+     * @param value
+     *            value to hash or null
+     * @return fingerprint of the value
+     */
+    public static String ofValue(Object value)
+    {
+        Fingerprint print = new Fingerprint();
+        print.update(value);
+
+        return print.toString();
+    }
+
+    /**
+     * Creates a fingerprint without any values.
+     */
+    public Fingerprint()
+    {
+        try
+        {
+            fDigest = MessageDigest.getInstance("SHA-1");
+        } catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds a value to the fingerprint.
+     * 
+     * @param value
+     *            value to add or null
+     */
+    public void update(Object value)
+    {
+        byte[] data = null;
+
+        if (value == null)
+        {
+            data = new byte[0];
+        } else if (value instanceof byte[])
+        {
+            data = (byte[]) value;
+        } else
+        {
+            data = value.toString().getBytes(UTF8);
+        }
+
+        fDigest.update((byte) (data.length >>> 24));
+        fDigest.update((byte) (data.length >>> 16));
+        fDigest.update((byte) (data.length >>> 8));
+        fDigest.update((byte) data.length);
+        fDigest.update(data);
+
+        ++fCount;
+    }
+
+    /**
+     * Returns the hexadecimal fingerprint of all values added. The
+     * fingerprint can only be retrieved once.
+     * 
+     * @return fingerprint of the values
+     */
+    @Override
+    public String toString()
+    {
+        if (fCount == 0)
+        {
+            return EMPTY;
+        }
+
+        final byte[] hash = fDigest.digest();
+        final char[] chars = new char[hash.length * 2];
+
+        for (int i = 0; i < hash.length; ++i)
+        {
+            chars[2 * i] = HEX[(hash[i] >>> 4) & 0xF];
+            chars[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+}
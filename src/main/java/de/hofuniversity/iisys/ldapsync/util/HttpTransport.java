@@ -0,0 +1,245 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP transport for end points talking to web services, which can be shared
+ * by all threads of an end point. Responses are requested with gzip
+ * compression and request bodies can optionally be compressed as well.
+ * Request bodies are streamed with chunked transfer encoding, so that they
+ * don't have to be held in memory.
+ * Connections are kept alive and reused between requests, which requires
+ * response streams to be closed - they are read to their end when closed so
+ * that the connection can be handed back even if not all data was needed.
+ * The number of idle connections kept alive per host is limited JVM-wide by
+ * the system property "http.maxConnections" (5 by default), which is left to
+ * the command line since it affects all connections of the process.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class HttpTransport
+{
+    private static final String GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int fConnectTimeout, fReadTimeout;
+    private final boolean fCompressRequests;
+
+    /**
+     * Creates a transport with the given timeouts in milliseconds, where
+     * values that are not positive mean no timeout.
+     * 
+     * @param connectTimeout
+     *            timeout for establishing connections
+     * @param readTimeout
+     *            timeout for reading from connections
+     * @param compressRequests
+     *            whether request bodies are sent gzip-compressed
+     */
+    public HttpTransport(int connectTimeout, int readTimeout,
+        boolean compressRequests)
+    {
+        fConnectTimeout = Math.max(0, connectTimeout);
+        fReadTimeout = Math.max(0, readTimeout);
+        fCompressRequests = compressRequests;
+    }
+
+    /**
+     * Sends a GET request to the given URL and returns the response body,
+     * which has to be closed by the caller.
+     * 
+     * @param url
+     *            URL to request
+     * @return stream of the response body
+     * @throws IOException
+     *             if the request fails or an error status is returned
+     */
+    public InputStream get(String url) throws IOException
+    {
+        final HttpURLConnection connection = open(url);
+        connection.setRequestMethod("GET");
+
+        return getResponse(connection);
+    }
+
+    /**
+     * Sends a conditional GET request to the given URL, using the given
+     * validators of a cached response. Returns null if the server reports
+     * that the response did not change. Otherwise, the validators are updated
+     * with those of the new response, which is returned and has to be closed
+     * by the caller.
+     * 
+     * @param url
+     *            URL to request
+     * @param validators
+     *            validators of the cached response, updated
+     * @return stream of the response body or null if it did not change
+     * @throws IOException
+     *             if the request fails or an error status is returned
+     */
+    public InputStream get(String url, HttpValidators validators)
+        throws IOException
+    {
+        final HttpURLConnection connection = open(url);
+        connection.setRequestMethod("GET");
+
+        if (validators.getEtag() != null)
+        {
+            connection.setRequestProperty("If-None-Match",
+                validators.getEtag());
+        }
+        if (validators.getLastModified() != null)
+        {
+            connection.setRequestProperty("If-Modified-Since",
+                validators.getLastModified());
+        }
+
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+        {
+            // no body, but the stream has to be closed for reuse
+            final InputStream in = connection.getInputStream();
+            new ResponseStream(in, in).close();
+            return null;
+        }
+
+        final InputStream response = getResponse(connection);
+        validators.setEtag(connection.getHeaderField("ETag"));
+        validators.setLastModified(connection.getHeaderField("Last-Modified"));
+
+        return response;
+    }
+
+    /**
+     * Sends a POST request to the given URL, streaming the given body with
+     * chunked transfer encoding, and returns the response body, which has to
+     * be closed by the caller. If compression is enabled, the body is always
+     * compressed, since its size is not known in advance.
+     * 
+     * @param url
+     *            URL to post to
+     * @param contentType
+     *            content type of the body
+     * @param body
+     *            body to stream
+     * @return stream of the response body
+     * @throws IOException
+     *             if the request fails or an error status is returned
+     */
+    public InputStream post(String url, String contentType, IRequestBody body)
+        throws IOException
+    {
+        final HttpURLConnection connection = open(url);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", contentType);
+        if (fCompressRequests)
+        {
+            connection.setRequestProperty("Content-Encoding", GZIP);
+        }
+
+        // sent in chunks as it is written, without buffering the body
+        connection.setChunkedStreamingMode(BUFFER_SIZE);
+
+        OutputStream out = connection.getOutputStream();
+        try
+        {
+            if (fCompressRequests)
+            {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            }
+            body.writeTo(out);
+            out.flush();
+        } finally
+        {
+            out.close();
+        }
+
+        return getResponse(connection);
+    }
+
+    private HttpURLConnection open(String url) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url)
+            .openConnection();
+
+        connection.setConnectTimeout(fConnectTimeout);
+        connection.setReadTimeout(fReadTimeout);
+        connection.setUseCaches(false);
+        connection.setDoInput(true);
+        connection.setRequestProperty("Accept-Encoding", GZIP);
+
+        return connection;
+    }
+
+    private InputStream getResponse(HttpURLConnection connection)
+        throws IOException
+    {
+        final int code = connection.getResponseCode();
+        if (code >= HttpURLConnection.HTTP_BAD_REQUEST)
+        {
+            // read error body so that the connection can be reused
+            final InputStream error = connection.getErrorStream();
+            if (error != null)
+            {
+                new ResponseStream(error, error).close();
+            }
+
+            throw new IOException("HTTP " + code + " "
+                + connection.getResponseMessage() + " for "
+                + connection.getURL());
+        }
+
+        final InputStream raw = connection.getInputStream();
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding()))
+        {
+            return new ResponseStream(new GZIPInputStream(raw, BUFFER_SIZE),
+                raw);
+        }
+
+        return new ResponseStream(raw, raw);
+    }
+
+    /**
+     * Response body that reads the underlying connection stream to its end
+     * when closed, so that the connection is kept alive.
+     */
+    private static class ResponseStream extends FilterInputStream
+    {
+        private final InputStream fRaw;
+
+        public ResponseStream(InputStream in, InputStream raw)
+        {
+            super(in);
+            fRaw = raw;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                while (in.read(buffer) != -1)
+                {
+                    // discard
+                }
+                while (fRaw.read(buffer) != -1)
+                {
+                    // discard
+                }
+            } finally
+            {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+/**
+ * Validators of a cached HTTP response, sent with conditional requests so
+ * that the server can answer that the response did not change.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class HttpValidators
+{
+    private String fEtag, fLastModified;
+
+    /**
+     * Creates validators with the given values, both of which may be null.
+     * 
+     * @param etag
+     *            entity tag of the response or null
+     * @param lastModified
+     *            last modification date of the response or null
+     */
+    public HttpValidators(String etag, String lastModified)
+    {
+        fEtag = etag;
+        fLastModified = lastModified;
+    }
+
+    /**
+     * @return entity tag of the response or null
+     */
+    public String getEtag()
+    {
+        return fEtag;
+    }
+
+    /**
+     * @param etag
+     *            entity tag of the response or null
+     */
+    public void setEtag(String etag)
+    {
+        fEtag = etag;
+    }
+
+    /**
+     * @return last modification date of the response or null
+     */
+    public String getLastModified()
+    {
+        return fLastModified;
+    }
+
+    /**
+     * @param lastModified
+     *            last modification date of the response or null
+     */
+    public void setLastModified(String lastModified)
+    {
+        fLastModified = lastModified;
+    }
+
+    /**
+     * @return whether there is no validator at all
+     */
+    public boolean isEmpty()
+    {
+        return fEtag == null && fLastModified == null;
+    }
+}
@@ -0,0 +1,25 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Interface for HTTP request bodies that are written directly to the
+ * connection instead of being built in memory first. Bodies should be
+ * writable more than once, so that failed requests can be repeated.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public interface IRequestBody
+{
+    /**
+     * Writes the body to the given stream, which is closed by the caller.
+     * 
+     * @param out
+     *            stream to write to
+     * @throws IOException
+     *             if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException;
+}
@@ -1,16 +1,31 @@
 package de.hofuniversity.iisys.ldapsync.util;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Class simplifying the use of JSON objects by converting themselves from and
  * to JSON as well as providing attribute access. The toString()-method
- * generates a JSON representation of the object.
+ * generates a JSON representation of the object. Changes made after an object
+ * was created or parsed are tracked per attribute, so that only the changes
+ * can be converted to JSON. Objects parsed lazily only keep the offsets of
+ * their attributes in the JSON text and parse each attribute when it is first
+ * accessed; untouched attributes are written as they were read. Values that
+ * can't be accessed as attributes, like nested lists, are kept as JSON text
+ * and written back unchanged until they are replaced or removed. Reading
+ * attributes is thread-safe, changing them is not. Objects can be written
+ * directly to a character stream without building strings in between.
  * 
  * @author fholzschuher2
  * 
@@ -22,40 +37,22 @@ public class JsonObject
     private final Map<String, JsonObject> fSubObjects;
     private final Map<String, List<JsonObject>> fObjectLists;
 
-    public static int getCloseBracketIndex(final String json, int start)
-    {
-        final int length = json.length();
-        int depth = 0;
+    // JSON text of values that can't be represented otherwise
+    private final Map<String, String> fRawValues;
 
-        final char opBracket = json.charAt(start);
-        char clBracket = ']';
-        if (opBracket == '{')
-        {
-            clBracket = '}';
-        }
-
-        int i = start;
-        char c = ' ';
-        for (; i < length; ++i)
-        {
-            c = json.charAt(i);
+    // names of attributes that were set or removed
+    private final Set<String> fModified;
 
-            if (c == opBracket)
-            {
-                ++depth;
-            } else if (c == clBracket)
-            {
-                --depth;
-            }
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-            if (depth == 0)
-            {
-                break;
-            }
-        }
+    // names of number and boolean values, which are not quoted
+    private final Set<String> fLiterals;
 
-        return i;
-    }
+    // JSON text of lazily parsed objects and offsets of attributes not parsed
+    // yet: start and end of the name, start and end of the value
+    private CharSequence fSource;
+    private int[] fIndex;
+    private int fStart, fEnd, fPending;
 
     /**
      * Creates a blank JSON object that can be filled with attributes and
@@ -67,126 +64,171 @@ public class JsonObject
         fListAttributes = new HashMap<String, List<String>>();
         fSubObjects = new HashMap<String, JsonObject>();
         fObjectLists = new HashMap<String, List<JsonObject>>();
+        fRawValues = new HashMap<String, String>();
+        fModified = new HashSet<String>();
+        fLiterals = new HashSet<String>();
     }
 
     /**
      * Creates a JSON object from a JSON string, setting all attributes and
-     * sub-objects.
+     * sub-objects. Throws an IllegalArgumentException if the string is not a
+     * valid JSON object.
      * 
      * @param json
      *            JSON string
      */
     public JsonObject(final String json)
     {
-        fAttributes = new HashMap<String, String>();
-        fListAttributes = new HashMap<String, List<String>>();
-        fSubObjects = new HashMap<String, JsonObject>();
-        fObjectLists = new HashMap<String, List<JsonObject>>();
+        this();
 
-        final int length = json.length();
-        char c = ' ';
-        for (int i = 1; i < length; ++i)
-        {
-            c = json.charAt(i);
+        new JsonParser(json).parseObject(this);
+    }
 
-            if (c == '"')
-            {
-                i = readAttribute(json, i);
-            }
+    /**
+     * Creates a lazily parsed object from the given JSON text, spanning from
+     * the given start to the given end offset. Each attribute is described by
+     * four offsets in the index: start and end of its name, excluding quotes,
+     * and start and end of its value.
+     * 
+     * @param source
+     *            JSON text
+     * @param index
+     *            offsets of the attributes
+     * @param start
+     *            offset of the object's opening brace
+     * @param end
+     *            offset after the object's closing brace
+     */
+    JsonObject(CharSequence source, int[] index, int start, int end)
+    {
+        this();
+
+        fSource = source;
+        fIndex = index;
+        fStart = start;
+        fEnd = end;
+        fPending = index.length / 4;
 
-            // TODO: lists
+        if (fPending == 0)
+        {
+            fSource = null;
+            fIndex = null;
         }
     }
 
-    private int readAttribute(final String json, int start)
+    private synchronized void materialize(String name)
     {
-        int stop = ++start;
-
-        char c = json.charAt(stop);
-        while (c != '"')
+        if (fSource == null)
         {
-            ++stop;
-            c = json.charAt(stop);
+            return;
         }
 
-        String name = json.substring(start, stop);
-
-        stop += 2;
-        c = json.charAt(stop);
-
-        // singular attributes
-        if (c == '"')
+        // attributes of nested objects are in the top level attribute
+        final int dot = name.indexOf('.');
+        if (dot >= 0)
         {
-            start = ++stop;
+            name = name.substring(0, dot);
+        }
 
-            c = json.charAt(stop);
-            while (c != '"')
+        for (int i = 0; fSource != null && i < fIndex.length; i += 4)
+        {
+            if (fIndex[i] >= 0 && isName(i, name))
             {
-                ++stop;
-                c = json.charAt(stop);
+                parse(i, name);
             }
-            String value = json.substring(start, stop);
-
-            fAttributes.put(name, value);
         }
-        // objects
-        else if (c == '{')
+    }
+
+    private synchronized void materializeAll()
+    {
+        for (int i = 0; fSource != null && i < fIndex.length; i += 4)
         {
-            start = stop;
-            stop = getCloseBracketIndex(json, start) + 1;
+            if (fIndex[i] >= 0)
+            {
+                parse(i, fSource.subSequence(fIndex[i], fIndex[i + 1])
+                    .toString());
+            }
+        }
+    }
 
-            String subString = json.substring(start, stop);
-            JsonObject subObject = new JsonObject(subString);
+    private void parse(int i, String name)
+    {
+        new JsonParser(fSource, fIndex[i + 2], true).parseValue(this, name);
+        fIndex[i] = -1;
 
-            fSubObjects.put(name, subObject);
+        // drop the text once everything is parsed
+        if (--fPending == 0)
+        {
+            fSource = null;
+            fIndex = null;
         }
-        // list attributes
-        else if (c == '[')
+    }
+
+    private boolean isName(int i, String name)
+    {
+        final int start = fIndex[i];
+        if (fIndex[i + 1] - start != name.length())
         {
-            start = stop;
-            stop = getCloseBracketIndex(json, start) + 1;
+            return false;
+        }
 
-            c = json.charAt(start + 1);
-            if (c == '"')
-            {
-                List<String> values = readList(json, start);
-                fListAttributes.put(name, values);
-            } else
+        for (int j = 0; j < name.length(); ++j)
+        {
+            if (fSource.charAt(start + j) != name.charAt(j))
             {
-                // TODO: object lists?
+                return false;
             }
         }
 
-        return stop;
+        return true;
     }
 
-    private List<String> readList(final String json, int start)
+    void putAttribute(String name, String value, boolean literal)
     {
-        final List<String> list = new ArrayList<String>();
-        int pos = ++start;
-
-        boolean reading = false;
-        char c = json.charAt(pos);
-        while (c != ']')
+        fAttributes.put(name, value);
+        if (literal)
         {
-            if (c == '"')
-            {
-                if (reading)
-                {
-                    reading = false;
-                    list.add(json.substring(start, pos));
-                } else
-                {
-                    reading = true;
-                    start = pos + 1;
-                }
-            }
+            fLiterals.add(name);
+        }
+    }
 
-            ++pos;
-            c = json.charAt(pos);
+    void putListAttribute(String name, List<String> values, boolean literal)
+    {
+        fListAttributes.put(name, values);
+        if (literal)
+        {
+            fLiterals.add(name);
         }
+    }
 
-        return list;
+    void putSubObject(String name, JsonObject object)
+    {
+        fSubObjects.put(name, object);
+    }
+
+    void putObjectList(String name, List<JsonObject> list)
+    {
+        fObjectLists.put(name, list);
+    }
+
+    void putRawValue(String name, String json)
+    {
+        fRawValues.put(name, json);
+    }
+
+    /**
+     * Retrieves the JSON text of a value that can't be accessed otherwise,
+     * like a list containing lists. Returns null if there is no such value.
+     * 
+     * @param name
+     *            name of the attribute
+     * @return JSON text of the value or null
+     */
+    synchronized String getRawValue(String name)
+    {
+        materialize(name);
+
+        return fRawValues.get(name);
     }
 
     /**
@@ -197,8 +239,10 @@ public class JsonObject
      *            name of the attribute
      * @return value of the attribute or null
      */
-    public String getSingleAttribute(String name)
+    public synchronized String getSingleAttribute(String name)
     {
+        materialize(name);
+
         String value = null;
 
         if (name.contains("."))
@@ -228,8 +272,10 @@ public class JsonObject
      *            name of the attribute
      * @return list of values of the attribute or null
      */
-    public List<String> getListAttribute(String name)
+    public synchronized List<String> getListAttribute(String name)
     {
+        materialize(name);
+
         List<String> values = null;
 
         if (name.contains("."))
@@ -259,8 +305,10 @@ public class JsonObject
      *            name of the object
      * @return a JSON object or null
      */
-    public JsonObject getSubObject(String name)
+    public synchronized JsonObject getSubObject(String name)
     {
+        materialize(name);
+
         JsonObject object = null;
 
         if (name.contains("."))
@@ -291,8 +339,10 @@ public class JsonObject
      *            name of the attribute
      * @return list of values or null
      */
-    public List<JsonObject> getObjectList(String name)
+    public synchronized List<JsonObject> getObjectList(String name)
     {
+        materialize(name);
+
         List<JsonObject> list = null;
 
         if (name.contains("."))
@@ -314,9 +364,46 @@ public class JsonObject
         return list;
     }
 
+    private boolean isEqual(Object value, Object oldValue)
+    {
+        if (value == null)
+        {
+            return oldValue == null;
+        }
+
+        return value.equals(oldValue);
+    }
+
+    /**
+     * Returns the names of all attributes, list attributes, sub objects and
+     * object lists of this object, not including nested ones.
+     * 
+     * @return names of all attributes
+     */
+    synchronized Set<String> getAttributeNames()
+    {
+        final Set<String> names = new HashSet<String>(fAttributes.keySet());
+        names.addAll(fListAttributes.keySet());
+        names.addAll(fSubObjects.keySet());
+        names.addAll(fObjectLists.keySet());
+        names.addAll(fRawValues.keySet());
+
+        for (int i = 0; fSource != null && i < fIndex.length; i += 4)
+        {
+            if (fIndex[i] >= 0)
+            {
+                names.add(fSource.subSequence(fIndex[i], fIndex[i + 1])
+                    .toString());
+            }
+        }
+
+        return names;
+    }
+
     /**
      * Sets the value of a singular attribute, overwrites any existing values
-     * and removes list and object values with the same name.
+     * and removes list and object values with the same name. Does nothing if
+     * the attribute already has an equal value.
      * 
      * @param name
      *            name of the attribute to set
@@ -325,6 +412,8 @@ public class JsonObject
      */
     public void setSingleAttribute(String name, String value)
     {
+        materialize(name);
+
         if (name.contains("."))
         {
             int dot = name.indexOf('.');
@@ -339,17 +428,20 @@ public class JsonObject
             }
 
             subObject.setSingleAttribute(att, value);
-        } else
+        } else if (!fAttributes.containsKey(name)
+            || !isEqual(value, fAttributes.get(name)))
         {
             removeAttribute(name);
 
             fAttributes.put(name, value);
+            fModified.add(name);
         }
     }
 
     /**
      * Sets an attribute to multiple values, overwriting any existing values and
-     * removing singular values and object values with the same name.
+     * removing singular values and object values with the same name. Does
+     * nothing if the attribute already has an equal list of values.
      * 
      * @param name
      *            name of the attribute to set
@@ -358,6 +450,8 @@ public class JsonObject
      */
     public void setListAttribute(String name, List<String> values)
     {
+        materialize(name);
+
         if (name.contains("."))
         {
             int dot = name.indexOf('.');
@@ -372,17 +466,20 @@ public class JsonObject
             }
 
             subObject.setListAttribute(att, values);
-        } else
+        } else if (!fListAttributes.containsKey(name)
+            || !isEqual(values, fListAttributes.get(name)))
         {
             removeAttribute(name);
 
             fListAttributes.put(name, values);
+            fModified.add(name);
         }
     }
 
     /**
      * Sets the sub object registered under a certain name, overwrites any
      * existing values and removes list and object values with the same name.
+     * Does nothing if an equal object is already set.
      * 
      * @param name
      *            name of the sub object to set
@@ -391,6 +488,8 @@ public class JsonObject
      */
     public void setSubObject(String name, JsonObject object)
     {
+        materialize(name);
+
         if (name.contains("."))
         {
             int dot = name.indexOf('.');
@@ -405,17 +504,21 @@ public class JsonObject
             }
 
             subObject.setSubObject(sub, object);
-        } else
+        } else if (!fSubObjects.containsKey(name)
+            || !isEqual(object, fSubObjects.get(name)))
         {
             removeAttribute(name);
 
             fSubObjects.put(name, object);
+            fModified.add(name);
         }
     }
 
     /**
      * Sets the values of an object list, overwrites any existing singular
-     * values and removes list and object values with the same name.
+     * values and removes list and object values with the same name. Does
+     * nothing if an equal list is already set, so lists that were changed in
+     * place have to be set as new lists.
      * 
      * @param name
      *            name of the object list to set
@@ -424,6 +527,8 @@ public class JsonObject
      */
     public void setObjectList(String name, List<JsonObject> list)
     {
+        materialize(name);
+
         if (name.contains("."))
         {
             int dot = name.indexOf('.');
@@ -438,11 +543,13 @@ public class JsonObject
             }
 
             subObject.setObjectList(att, list);
-        } else
+        } else if (!fObjectLists.containsKey(name)
+            || !isEqual(list, fObjectLists.get(name)))
         {
             removeAttribute(name);
 
             fObjectLists.put(name, list);
+            fModified.add(name);
         }
     }
 
@@ -456,6 +563,8 @@ public class JsonObject
      */
     public boolean removeAttribute(String name)
     {
+        materialize(name);
+
         boolean removed = false;
 
         if (name.contains("."))
@@ -495,141 +604,566 @@ public class JsonObject
             {
                 removed = true;
             }
+            oldVal = fRawValues.remove(name);
+            if (oldVal != null)
+            {
+                removed = true;
+            }
+
+            if (removed)
+            {
+                fModified.add(name);
+                fLiterals.remove(name);
+            }
         }
 
         return removed;
     }
 
-    @Override
-    public String toString()
+    /**
+     * Returns whether this object or any object nested in it was changed
+     * since it was created or parsed. Objects that were not parsed count as
+     * changed as soon as an attribute is set.
+     * 
+     * @return whether any attribute was changed
+     */
+    public boolean isModified()
     {
-        final StringBuffer buffer = new StringBuffer("{");
+        if (!fModified.isEmpty())
+        {
+            return true;
+        }
 
-        // whether there are preceding attributes, so that a comma is needed
-        boolean needsComma = false;
+        for (JsonObject object : fSubObjects.values())
+        {
+            if (object != null && object.isModified())
+            {
+                return true;
+            }
+        }
 
-        // singular attributes
-        final Iterator<Entry<String, String>> atts = fAttributes.entrySet()
-            .iterator();
-        if (atts.hasNext())
+        for (List<JsonObject> list : fObjectLists.values())
+        {
+            if (isModified(list))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isModified(List<JsonObject> list)
+    {
+        if (list != null)
         {
-            needsComma = true;
+            for (JsonObject object : list)
+            {
+                if (object != null && object.isModified())
+                {
+                    return true;
+                }
+            }
         }
 
-        Entry<String, String> att = null;
-        while (atts.hasNext())
+        return false;
+    }
+
+    /**
+     * Generates a JSON representation containing only the changes made to
+     * this object: changed attributes and sub objects or object lists
+     * containing a change as a whole, since updates replace top-level fields.
+     * Removed attributes are set to null. Attributes with the given names are
+     * always included.
+     * 
+     * @param included
+     *            names of attributes to include in any case or null
+     * @return JSON representation of the changes
+     */
+    public String toModifiedString(Collection<String> included)
+    {
+        final StringWriter buffer = new StringWriter();
+        try
         {
-            att = atts.next();
-            buffer.append("\"" + att.getKey() + "\"");
-            buffer.append(":\"" + att.getValue() + "\"");
+            writeModifiedTo(buffer, included);
+        } catch (IOException e)
+        {
+            // not thrown by string writers
+            throw new IllegalStateException(e);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Writes the JSON representation of this object to the given character
+     * stream, escaping strings on the way. The stream is neither flushed nor
+     * closed.
+     * 
+     * @param out
+     *            character stream to write to
+     * @throws IOException
+     *             if writing fails
+     */
+    public void writeTo(Writer out) throws IOException
+    {
+        write(out, false, null);
+    }
 
-            if (atts.hasNext())
+    /**
+     * Writes the JSON representation of the changes made to this object to
+     * the given character stream, like toModifiedString(). The stream is
+     * neither flushed nor closed.
+     * 
+     * @param out
+     *            character stream to write to
+     * @param included
+     *            names of attributes to include in any case or null
+     * @throws IOException
+     *             if writing fails
+     */
+    public void writeModifiedTo(Writer out, Collection<String> included)
+        throws IOException
+    {
+        if (included != null)
+        {
+            for (String name : included)
             {
-                buffer.append(',');
+                materialize(name);
             }
         }
 
-        // list attributes
-        final Iterator<Entry<String, List<String>>> listAtts = fListAttributes
-            .entrySet().iterator();
-        if (needsComma && listAtts.hasNext())
+        write(out, true, included);
+    }
+
+    /**
+     * Writes the given value as a quoted JSON string with escapes to the given
+     * character stream, or null if it is null.
+     * 
+     * @param out
+     *            character stream to write to
+     * @param value
+     *            value to write
+     * @throws IOException
+     *             if writing fails
+     */
+    public static void writeString(Writer out, String value)
+        throws IOException
+    {
+        writeValue(out, value, false);
+    }
+
+    /**
+     * Compares the attributes and nested objects of two JSON objects, ignoring
+     * which of them were changed.
+     * 
+     * @param obj
+     *            object to compare to
+     * @return whether the objects have equal content
+     */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+        {
+            return true;
+        }
+        if (!(obj instanceof JsonObject))
+        {
+            return false;
+        }
+
+        JsonObject other = (JsonObject) obj;
+        materializeAll();
+        other.materializeAll();
+
+        return fAttributes.equals(other.fAttributes)
+            && fListAttributes.equals(other.fListAttributes)
+            && fSubObjects.equals(other.fSubObjects)
+            && fObjectLists.equals(other.fObjectLists)
+            && fRawValues.equals(other.fRawValues);
+    }
+
+    /**
+     * Computes a hash code from the object's content, which changes whenever
+     * the content does.
+     * 
+     * @return hash code of the content
+     */
+    @Override
+    public int hashCode()
+    {
+        materializeAll();
+
+        int hash = fAttributes.hashCode();
+        hash = 31 * hash + fListAttributes.hashCode();
+        hash = 31 * hash + fSubObjects.hashCode();
+        hash = 31 * hash + fObjectLists.hashCode();
+        hash = 31 * hash + fRawValues.hashCode();
+
+        return hash;
+    }
+
+    /**
+     * Returns a fingerprint of the object's content. For lazily parsed
+     * objects with attributes that were not parsed yet and no changes, it is
+     * computed from the JSON text they were read from without parsing
+     * anything, otherwise from the canonical representation.
+     * 
+     * @return fingerprint of the object
+     */
+    public synchronized String getFingerprint()
+    {
+        if (fSource != null && !isModified())
         {
-            buffer.append(',');
+            return Fingerprint.ofValue(fSource.subSequence(fStart, fEnd));
         }
-        if (listAtts.hasNext())
+
+        return Fingerprint.ofValue(toCanonicalString());
+    }
+
+    /**
+     * @return number of attributes of a lazily parsed object that were not
+     *         parsed yet
+     */
+    public synchronized int getUnparsedCount()
+    {
+        return fSource != null ? fPending : 0;
+    }
+
+    /**
+     * Generates a JSON representation of the object's content with all
+     * attributes sorted by name, which is the same for equal objects no matter
+     * in which order attributes were read or which of them were parsed.
+     * 
+     * @return canonical JSON representation
+     */
+    public String toCanonicalString()
+    {
+        final StringWriter buffer = new StringWriter();
+        try
+        {
+            writeCanonical(buffer);
+        } catch (IOException e)
         {
-            needsComma = true;
+            // not thrown by string writers
+            throw new IllegalStateException(e);
         }
+        return buffer.toString();
+    }
+
+    private synchronized void writeCanonical(Writer buffer)
+        throws IOException
+    {
+        materializeAll();
+
+        final Set<String> names = new TreeSet<String>(fAttributes.keySet());
+        names.addAll(fListAttributes.keySet());
+        names.addAll(fSubObjects.keySet());
+        names.addAll(fObjectLists.keySet());
+        names.addAll(fRawValues.keySet());
+
+        buffer.write('{');
 
-        Entry<String, List<String>> attList = null;
-        while (listAtts.hasNext())
+        boolean needsComma = false;
+        for (String name : names)
         {
-            attList = listAtts.next();
-            buffer.append("\"" + attList.getKey() + "\":[");
+            needsComma = writeName(buffer, needsComma, name);
+            final boolean literal = fLiterals.contains(name);
 
-            Iterator<String> attIt = attList.getValue().iterator();
-            while (attIt.hasNext())
+            if (fAttributes.containsKey(name))
             {
-                buffer.append('"' + attIt.next() + '"');
-
-                if (attIt.hasNext())
+                writeValue(buffer, fAttributes.get(name), literal);
+            } else if (fListAttributes.containsKey(name))
+            {
+                buffer.write('[');
+                Iterator<String> attIt = fListAttributes.get(name).iterator();
+                while (attIt.hasNext())
                 {
-                    buffer.append(',');
+                    writeValue(buffer, attIt.next(), literal);
+                    if (attIt.hasNext())
+                    {
+                        buffer.write(',');
+                    }
                 }
+                buffer.write(']');
+            } else if (fSubObjects.containsKey(name))
+            {
+                if (fSubObjects.get(name) != null)
+                {
+                    fSubObjects.get(name).writeCanonical(buffer);
+                } else
+                {
+                    buffer.write("null");
+                }
+            } else if (fRawValues.containsKey(name))
+            {
+                buffer.write(fRawValues.get(name));
+            } else
+            {
+                buffer.write('[');
+                Iterator<JsonObject> objIt = fObjectLists.get(name).iterator();
+                while (objIt.hasNext())
+                {
+                    objIt.next().writeCanonical(buffer);
+                    if (objIt.hasNext())
+                    {
+                        buffer.write(',');
+                    }
+                }
+                buffer.write(']');
             }
+        }
 
-            buffer.append(']');
+        buffer.write('}');
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringWriter buffer = new StringWriter();
+        try
+        {
+            write(buffer, false, null);
+        } catch (IOException e)
+        {
+            // not thrown by string writers
+            throw new IllegalStateException(e);
+        }
+        return buffer.toString();
+    }
+
+    private synchronized void write(Writer buffer, boolean modifiedOnly,
+        Collection<String> included) throws IOException
+    {
+        // untouched lazy objects are written as they were read
+        if (fSource != null && !modifiedOnly && fPending == fIndex.length / 4
+            && fAttributes.isEmpty() && fListAttributes.isEmpty()
+            && fSubObjects.isEmpty() && fObjectLists.isEmpty()
+            && fRawValues.isEmpty() && fModified.isEmpty())
+        {
+            writeSource(buffer, fStart, fEnd);
+            return;
+        }
+
+        buffer.write('{');
+
+        // whether there are preceding attributes, so that a comma is needed
+        boolean needsComma = false;
 
-            if (atts.hasNext())
+        // singular attributes
+        for (Entry<String, String> att : fAttributes.entrySet())
+        {
+            if (isIncluded(att.getKey(), modifiedOnly, included))
             {
-                buffer.append(',');
+                needsComma = writeName(buffer, needsComma, att.getKey());
+                writeValue(buffer, att.getValue(), fLiterals.contains(att
+                    .getKey()));
             }
         }
 
-        // sub objects
-        final Iterator<Entry<String, JsonObject>> objects = fSubObjects
-            .entrySet().iterator();
+        // list attributes
+        for (Entry<String, List<String>> attList : fListAttributes.entrySet())
+        {
+            if (isIncluded(attList.getKey(), modifiedOnly, included))
+            {
+                needsComma = writeName(buffer, needsComma, attList.getKey());
+                buffer.write('[');
+
+                final boolean literal = fLiterals.contains(attList.getKey());
+                Iterator<String> attIt = attList.getValue().iterator();
+                while (attIt.hasNext())
+                {
+                    writeValue(buffer, attIt.next(), literal);
+
+                    if (attIt.hasNext())
+                    {
+                        buffer.write(',');
+                    }
+                }
 
-        if (needsComma && objects.hasNext())
+                buffer.write(']');
+            }
+        }
+
+        // sub objects, as a whole since fields are replaced, not merged
+        for (Entry<String, JsonObject> obj : fSubObjects.entrySet())
         {
-            buffer.append(',');
+            if (isIncluded(obj.getKey(), modifiedOnly, included)
+                || obj.getValue() != null && obj.getValue().isModified())
+            {
+                needsComma = writeName(buffer, needsComma, obj.getKey());
+                if (obj.getValue() != null)
+                {
+                    obj.getValue().write(buffer, false, null);
+                } else
+                {
+                    buffer.write("null");
+                }
+            }
         }
-        if (objects.hasNext())
+
+        // object lists, as a whole since elements can't be addressed
+        for (Entry<String, List<JsonObject>> list : fObjectLists.entrySet())
         {
-            needsComma = true;
+            if (isIncluded(list.getKey(), modifiedOnly, included)
+                || isModified(list.getValue()))
+            {
+                needsComma = writeName(buffer, needsComma, list.getKey());
+                buffer.write('[');
+
+                Iterator<JsonObject> objIt = list.getValue().iterator();
+                while (objIt.hasNext())
+                {
+                    objIt.next().write(buffer, false, null);
+
+                    if (objIt.hasNext())
+                    {
+                        buffer.write(',');
+                    }
+                }
+
+                buffer.write(']');
+            }
         }
 
-        Entry<String, JsonObject> obj = null;
-        while (objects.hasNext())
+        // values kept as they were read
+        for (Entry<String, String> raw : fRawValues.entrySet())
         {
-            obj = objects.next();
-            buffer.append("\"" + obj.getKey() + "\"");
-            buffer.append(":" + obj.getValue() + "");
+            if (isIncluded(raw.getKey(), modifiedOnly, included))
+            {
+                needsComma = writeName(buffer, needsComma, raw.getKey());
+                buffer.write(raw.getValue());
+            }
+        }
 
-            if (objects.hasNext())
+        // attributes that were not parsed are unchanged
+        for (int i = 0; !modifiedOnly && fSource != null && i < fIndex.length;
+            i += 4)
+        {
+            if (fIndex[i] >= 0)
             {
-                buffer.append(',');
+                if (needsComma)
+                {
+                    buffer.write(',');
+                }
+                needsComma = true;
+
+                // from the opening quote of the name to the end of the value
+                writeSource(buffer, fIndex[i] - 1, fIndex[i + 3]);
             }
         }
 
-        // object lists
-        final Iterator<Entry<String, List<JsonObject>>> lists = fObjectLists
-            .entrySet().iterator();
+        // removed attributes
+        if (modifiedOnly)
+        {
+            for (String name : fModified)
+            {
+                if (!fAttributes.containsKey(name)
+                    && !fListAttributes.containsKey(name)
+                    && !fSubObjects.containsKey(name)
+                    && !fObjectLists.containsKey(name)
+                    && !fRawValues.containsKey(name))
+                {
+                    needsComma = writeName(buffer, needsComma, name);
+                    buffer.write("null");
+                }
+            }
+        }
+
+        buffer.write('}');
+    }
+
+    private boolean isIncluded(String name, boolean modifiedOnly,
+        Collection<String> included)
+    {
+        return !modifiedOnly || fModified.contains(name)
+            || included != null && included.contains(name);
+    }
 
-        if (needsComma && lists.hasNext())
+    private void writeSource(Writer buffer, int start, int end)
+        throws IOException
+    {
+        if (fSource instanceof String)
+        {
+            buffer.write((String) fSource, start, end - start);
+        } else
         {
-            buffer.append(',');
+            buffer.append(fSource, start, end);
         }
-        if (lists.hasNext())
+    }
+
+    private static boolean writeName(Writer buffer, boolean needsComma,
+        String name) throws IOException
+    {
+        if (needsComma)
         {
-            needsComma = true;
+            buffer.write(',');
         }
+        writeValue(buffer, name, false);
+        buffer.write(':');
 
-        Entry<String, List<JsonObject>> list = null;
-        while (lists.hasNext())
+        return true;
+    }
+
+    private static void writeValue(Writer buffer, String value,
+        boolean literal) throws IOException
+    {
+        if (value == null)
+        {
+            buffer.write("null");
+            return;
+        } else if (literal)
         {
-            list = lists.next();
-            buffer.append("\"" + list.getKey() + "\":[");
+            buffer.write(value);
+            return;
+        }
 
-            Iterator<JsonObject> objIt = list.getValue().iterator();
-            while (objIt.hasNext())
-            {
-                buffer.append(objIt.next().toString());
+        buffer.write('"');
 
-                if (objIt.hasNext())
-                {
-                    buffer.append(',');
-                }
+        // runs of characters that need no escaping are written at once
+        int start = 0;
+        for (int i = 0; i < value.length(); ++i)
+        {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\')
+            {
+                continue;
             }
 
-            buffer.append("]");
+            buffer.write(value, start, i - start);
+            start = i + 1;
 
-            if (lists.hasNext())
+            switch (c)
             {
-                buffer.append(',');
+                case '"':
+                    buffer.write("\\\"");
+                    break;
+                case '\\':
+                    buffer.write("\\\\");
+                    break;
+                case '\b':
+                    buffer.write("\\b");
+                    break;
+                case '\f':
+                    buffer.write("\\f");
+                    break;
+                case '\n':
+                    buffer.write("\\n");
+                    break;
+                case '\r':
+                    buffer.write("\\r");
+                    break;
+                case '\t':
+                    buffer.write("\\t");
+                    break;
+                default:
+                    buffer.write("\\u00");
+                    buffer.write(HEX[c >> 4]);
+                    buffer.write(HEX[c & 0xf]);
             }
         }
+        buffer.write(value, start, value.length() - start);
 
-        return buffer.append("}").toString();
+        buffer.write('"');
     }
 }
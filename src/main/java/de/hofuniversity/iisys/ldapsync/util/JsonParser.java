@@ -0,0 +1,479 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser reading JSON objects into JSON object trees in a single scan over
+ * the characters, without copying nested parts. Strings with escapes,
+ * numbers, booleans, nested objects, lists of values and lists of objects are
+ * supported. Numbers and booleans are kept as literals, so that they are
+ * written without quotes again. Null values are kept as such. Lists containing
+ * lists or mixing objects with other values are kept as their JSON text, so
+ * that they are written back as they were read. Objects can also be parsed
+ * lazily, only indexing their attributes until they are accessed.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class JsonParser
+{
+    // initial number of attributes indexed per lazy object
+    private static final int INDEX_SIZE = 16;
+
+    private final CharSequence fJson;
+    private final int fLength;
+    private final boolean fLazy;
+
+    private int fPos;
+
+    /**
+     * Creates a parser for the given JSON text, which may not be null.
+     * 
+     * @param json
+     *            JSON text to parse
+     */
+    public JsonParser(CharSequence json)
+    {
+        if (json == null)
+        {
+            throw new NullPointerException("JSON text was null");
+        }
+
+        fJson = json;
+        fLength = json.length();
+        fLazy = false;
+    }
+
+    /**
+     * Creates a parser for the value at the given offset of the given JSON
+     * text, which parses nested objects lazily if requested.
+     * 
+     * @param json
+     *            JSON text to parse
+     * @param start
+     *            offset to start parsing at
+     * @param lazy
+     *            whether nested objects are parsed lazily
+     */
+    JsonParser(CharSequence json, int start, boolean lazy)
+    {
+        fJson = json;
+        fLength = json.length();
+        fPos = start;
+        fLazy = lazy;
+    }
+
+    /**
+     * Parses the next JSON object in the text lazily: only the positions of
+     * its attributes are determined, their values are parsed when they are
+     * first accessed. The text must not change while the object is in use.
+     * Throws an IllegalArgumentException if the structure of the text is not
+     * valid JSON.
+     * 
+     * @return lazily parsed object
+     */
+    public JsonObject parseLazy()
+    {
+        skipWhitespace();
+        final int start = fPos;
+        expect('{');
+
+        int[] index = new int[INDEX_SIZE * 4];
+        int size = 0;
+
+        char c = skipWhitespace();
+        if (c == '}')
+        {
+            ++fPos;
+            return new JsonObject(fJson, new int[0], start, fPos);
+        }
+
+        while (true)
+        {
+            expect('"');
+            final int nameStart = fPos;
+            skipString();
+            final int nameEnd = fPos - 1;
+            expect(':');
+
+            skipWhitespace();
+            final int valueStart = fPos;
+            skipValue();
+
+            if (size == index.length)
+            {
+                index = Arrays.copyOf(index, size * 2);
+            }
+            index[size++] = nameStart;
+            index[size++] = nameEnd;
+            index[size++] = valueStart;
+            index[size++] = fPos;
+
+            c = skipWhitespace();
+            ++fPos;
+            if (c == '}')
+            {
+                break;
+            } else if (c != ',')
+            {
+                throw error("',' or '}' expected");
+            }
+        }
+
+        return new JsonObject(fJson, Arrays.copyOf(index, size), start, fPos);
+    }
+
+    /**
+     * Parses the next JSON object in the text. Throws an
+     * IllegalArgumentException if the text is not valid JSON.
+     * 
+     * @return parsed object
+     */
+    public JsonObject parseObject()
+    {
+        final JsonObject object = new JsonObject();
+        parseObject(object);
+
+        return object;
+    }
+
+    /**
+     * Parses the next JSON object in the text into the given object. Throws
+     * an IllegalArgumentException if the text is not valid JSON.
+     * 
+     * @param object
+     *            object to add attributes to
+     */
+    public void parseObject(JsonObject object)
+    {
+        expect('{');
+
+        char c = skipWhitespace();
+        if (c == '}')
+        {
+            ++fPos;
+            return;
+        }
+
+        while (true)
+        {
+            expect('"');
+            final String name = parseString();
+            expect(':');
+
+            parseValue(object, name);
+
+            c = skipWhitespace();
+            ++fPos;
+            if (c == '}')
+            {
+                return;
+            } else if (c != ',')
+            {
+                throw error("',' or '}' expected");
+            }
+        }
+    }
+
+    void parseValue(JsonObject object, String name)
+    {
+        final char c = skipWhitespace();
+
+        if (c == '"')
+        {
+            ++fPos;
+            object.putAttribute(name, parseString(), false);
+        } else if (c == '{' && fLazy)
+        {
+            object.putSubObject(name, parseLazy());
+        } else if (c == '{')
+        {
+            final JsonObject sub = new JsonObject();
+            parseObject(sub);
+            object.putSubObject(name, sub);
+        } else if (c == '[')
+        {
+            parseList(object, name);
+        } else
+        {
+            // null values are not literals, but written as null anyway
+            final String literal = parseLiteral();
+            object.putAttribute(name, literal, literal != null);
+        }
+    }
+
+    private void parseList(JsonObject object, String name)
+    {
+        skipWhitespace();
+        final int start = fPos;
+        expect('[');
+
+        final List<String> values = new ArrayList<String>();
+        final List<JsonObject> objects = new ArrayList<JsonObject>();
+        boolean literals = true;
+        boolean nested = false;
+
+        char c = skipWhitespace();
+        if (c == ']')
+        {
+            ++fPos;
+            object.putListAttribute(name, values, false);
+            return;
+        }
+
+        while (true)
+        {
+            c = skipWhitespace();
+            if (c == '{' && fLazy)
+            {
+                objects.add(parseLazy());
+            } else if (c == '{')
+            {
+                objects.add(parseObject());
+            } else if (c == '"')
+            {
+                ++fPos;
+                values.add(parseString());
+                literals = false;
+            } else if (c == '[')
+            {
+                skipValue();
+                nested = true;
+            } else
+            {
+                values.add(parseLiteral());
+            }
+
+            c = skipWhitespace();
+            ++fPos;
+            if (c == ']')
+            {
+                break;
+            } else if (c != ',')
+            {
+                throw error("',' or ']' expected");
+            }
+        }
+
+        // lists that can't be represented are kept as they were read
+        if (nested || !objects.isEmpty() && !values.isEmpty())
+        {
+            object.putRawValue(name, fJson.subSequence(start, fPos)
+                .toString());
+        } else if (!objects.isEmpty())
+        {
+            object.putObjectList(name, objects);
+        } else
+        {
+            object.putListAttribute(name, values, literals
+                && !values.isEmpty());
+        }
+    }
+
+    private void skipValue()
+    {
+        final char c = fJson.charAt(fPos);
+
+        if (c == '"')
+        {
+            ++fPos;
+            skipString();
+        } else if (c == '{' || c == '[')
+        {
+            // count brackets outside of strings
+            int depth = 0;
+            while (fPos < fLength)
+            {
+                char d = fJson.charAt(fPos++);
+                if (d == '"')
+                {
+                    skipString();
+                } else if (d == '{' || d == '[')
+                {
+                    ++depth;
+                } else if ((d == '}' || d == ']') && --depth == 0)
+                {
+                    return;
+                }
+            }
+            throw error("unterminated " + c);
+        } else
+        {
+            while (fPos < fLength)
+            {
+                char d = fJson.charAt(fPos);
+                if (d == ',' || d == '}' || d == ']'
+                    || Character.isWhitespace(d))
+                {
+                    return;
+                }
+                ++fPos;
+            }
+        }
+    }
+
+    private void skipString()
+    {
+        while (fPos < fLength)
+        {
+            char c = fJson.charAt(fPos++);
+            if (c == '"')
+            {
+                return;
+            } else if (c == '\\')
+            {
+                ++fPos;
+            }
+        }
+
+        throw error("unterminated string");
+    }
+
+    private String parseString()
+    {
+        final int start = fPos;
+
+        // fast path for strings without escapes
+        while (fPos < fLength)
+        {
+            char c = fJson.charAt(fPos);
+            if (c == '"')
+            {
+                String value = fJson.subSequence(start, fPos).toString();
+                ++fPos;
+                return value;
+            } else if (c == '\\')
+            {
+                break;
+            }
+            ++fPos;
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append(fJson, start, fPos);
+
+        while (fPos < fLength)
+        {
+            char c = fJson.charAt(fPos++);
+            if (c == '"')
+            {
+                return builder.toString();
+            } else if (c != '\\')
+            {
+                builder.append(c);
+                continue;
+            }
+
+            if (fPos >= fLength)
+            {
+                break;
+            }
+
+            c = fJson.charAt(fPos++);
+            switch (c)
+            {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (fPos + 4 > fLength)
+                    {
+                        throw error("incomplete unicode escape");
+                    }
+                    try
+                    {
+                        builder.append((char) Integer.parseInt(fJson
+                            .subSequence(fPos, fPos + 4).toString(), 16));
+                    } catch (NumberFormatException e)
+                    {
+                        throw error("invalid unicode escape");
+                    }
+                    fPos += 4;
+                    break;
+                default:
+                    // quotes, backslashes and slashes
+                    builder.append(c);
+            }
+        }
+
+        throw error("unterminated string");
+    }
+
+    private String parseLiteral()
+    {
+        final int start = fPos;
+
+        while (fPos < fLength)
+        {
+            char c = fJson.charAt(fPos);
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c))
+            {
+                break;
+            }
+            ++fPos;
+        }
+
+        final String literal = fJson.subSequence(start, fPos).toString();
+        if ("null".equals(literal))
+        {
+            return null;
+        } else if ("true".equals(literal) || "false".equals(literal))
+        {
+            return literal;
+        }
+
+        try
+        {
+            Double.parseDouble(literal);
+        } catch (NumberFormatException e)
+        {
+            fPos = start;
+            throw error("value expected");
+        }
+
+        return literal;
+    }
+
+    private void expect(char expected)
+    {
+        if (skipWhitespace() != expected)
+        {
+            throw error("'" + expected + "' expected");
+        }
+        ++fPos;
+    }
+
+    private char skipWhitespace()
+    {
+        while (fPos < fLength)
+        {
+            char c = fJson.charAt(fPos);
+            if (!Character.isWhitespace(c))
+            {
+                return c;
+            }
+            ++fPos;
+        }
+
+        throw error("unexpected end of JSON");
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException(message + " at position " + fPos);
+    }
+}
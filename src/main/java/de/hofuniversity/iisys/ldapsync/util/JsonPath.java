@@ -0,0 +1,435 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiled path to a value within a JSON object, addressing nested objects by
+ * name and elements of object lists by index. Paths are written as names
+ * separated by dots, where names of object lists are followed by an index in
+ * square brackets or by "[*]" for all elements, for example
+ * "name.givenName", "organizations[0].title" or "emails[*].value". Missing
+ * objects are created when values are set. Paths are immutable and can be
+ * shared between threads.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class JsonPath
+{
+    private static final int NO_INDEX = -1;
+    private static final int ALL = -2;
+
+    private final String fPath;
+    private final String[] fNames;
+    private final int[] fIndexes;
+
+    /**
+     * Compiles the given path. Throws a NullPointerException if it is null or
+     * empty and an IllegalArgumentException if it is malformed.
+     * 
+     * @param path
+     *            path to compile
+     * @return compiled path
+     */
+    public static JsonPath compile(String path)
+    {
+        if (path == null || path.isEmpty())
+        {
+            throw new NullPointerException("path was null");
+        }
+
+        final String[] parts = path.split("\\.");
+        final String[] names = new String[parts.length];
+        final int[] indexes = new int[parts.length];
+
+        for (int i = 0; i < parts.length; ++i)
+        {
+            String part = parts[i];
+            indexes[i] = NO_INDEX;
+
+            int open = part.indexOf('[');
+            if (open >= 0)
+            {
+                if (!part.endsWith("]") || i == parts.length - 1)
+                {
+                    throw new IllegalArgumentException("malformed path: "
+                        + path);
+                }
+
+                String index = part.substring(open + 1, part.length() - 1);
+                if ("*".equals(index))
+                {
+                    indexes[i] = ALL;
+                } else
+                {
+                    try
+                    {
+                        indexes[i] = Integer.parseInt(index);
+                        if (indexes[i] < 0)
+                        {
+                            throw new NumberFormatException(index);
+                        }
+                    } catch (NumberFormatException e)
+                    {
+                        throw new IllegalArgumentException("malformed path: "
+                            + path);
+                    }
+                }
+                part = part.substring(0, open);
+            }
+
+            if (part.isEmpty())
+            {
+                throw new IllegalArgumentException("malformed path: " + path);
+            }
+            names[i] = part;
+        }
+
+        return new JsonPath(path, names, indexes);
+    }
+
+    private JsonPath(String path, String[] names, int[] indexes)
+    {
+        fPath = path;
+        fNames = names;
+        fIndexes = indexes;
+    }
+
+    /**
+     * Reads the values the path points to. Returns null if there are none.
+     * 
+     * @param object
+     *            object to read from
+     * @return values or null
+     */
+    public List<String> get(JsonObject object)
+    {
+        final List<String> values = new ArrayList<String>();
+        get(object, 0, values);
+
+        if (values.isEmpty())
+        {
+            return null;
+        }
+        return values;
+    }
+
+    private void get(JsonObject object, int pos, List<String> values)
+    {
+        final String name = fNames[pos];
+
+        // value itself
+        if (pos == fNames.length - 1)
+        {
+            String value = object.getSingleAttribute(name);
+            if (value != null)
+            {
+                values.add(value);
+            } else if (object.getListAttribute(name) != null)
+            {
+                // null elements are no values
+                for (String element : object.getListAttribute(name))
+                {
+                    if (element != null)
+                    {
+                        values.add(element);
+                    }
+                }
+            }
+            return;
+        }
+
+        // nested objects
+        if (fIndexes[pos] == NO_INDEX)
+        {
+            JsonObject sub = object.getSubObject(name);
+            if (sub != null)
+            {
+                get(sub, pos + 1, values);
+            }
+            return;
+        }
+
+        final List<JsonObject> list = object.getObjectList(name);
+        if (list == null)
+        {
+            return;
+        }
+
+        if (fIndexes[pos] == ALL)
+        {
+            for (JsonObject element : list)
+            {
+                get(element, pos + 1, values);
+            }
+        } else if (fIndexes[pos] < list.size())
+        {
+            get(list.get(fIndexes[pos]), pos + 1, values);
+        }
+    }
+
+    /**
+     * Sets a single value, creating objects along the path as needed. For
+     * paths over all elements of a list, nothing changes if an element
+     * already has the value, otherwise a new element is added, keeping all
+     * other elements.
+     * 
+     * @param object
+     *            object to set the value in
+     * @param value
+     *            value to set
+     */
+    public void setValue(JsonObject object, String value)
+    {
+        setValue(object, value, null);
+    }
+
+    /**
+     * Sets a single value that replaces the given previous one, creating
+     * objects along the path as needed. For paths over all elements of a
+     * list, nothing changes if an element already has the value, otherwise
+     * the element holding the previous value gets the new one. If there is no
+     * such element, a new one is added, keeping all other elements.
+     * 
+     * @param object
+     *            object to set the value in
+     * @param value
+     *            value to set
+     * @param previous
+     *            value set before or null
+     */
+    public void setValue(JsonObject object, String value, String previous)
+    {
+        final List<String> values = new ArrayList<String>();
+        values.add(value);
+
+        set(object, 0, values, true, previous);
+    }
+
+    /**
+     * Sets a list of values, creating objects along the path as needed. For
+     * paths over all elements of a list, elements that have one of the values
+     * are kept as they are, the others are removed and elements for missing
+     * values are added.
+     * 
+     * @param object
+     *            object to set the values in
+     * @param values
+     *            values to set
+     */
+    public void setValues(JsonObject object, List<String> values)
+    {
+        set(object, 0, values, false, null);
+    }
+
+    private void set(JsonObject object, int pos, List<String> values,
+        boolean single, String previous)
+    {
+        final String name = fNames[pos];
+
+        // value itself
+        if (pos == fNames.length - 1)
+        {
+            if (single)
+            {
+                object.setSingleAttribute(name, values.get(0));
+            } else
+            {
+                object.setListAttribute(name, values);
+            }
+            return;
+        }
+
+        // nested objects
+        if (fIndexes[pos] == NO_INDEX)
+        {
+            JsonObject sub = object.getSubObject(name);
+            if (sub == null)
+            {
+                sub = new JsonObject();
+                object.setSubObject(name, sub);
+            }
+
+            set(sub, pos + 1, values, single, previous);
+        } else if (fIndexes[pos] == ALL && single)
+        {
+            setSingle(object, pos, values, previous);
+        } else if (fIndexes[pos] == ALL)
+        {
+            setAll(object, pos, values);
+        } else
+        {
+            // extend as a new list so that the change is tracked
+            List<JsonObject> list = object.getObjectList(name);
+            if (list == null || list.size() <= fIndexes[pos])
+            {
+                final List<JsonObject> extended = new ArrayList<JsonObject>();
+                if (list != null)
+                {
+                    extended.addAll(list);
+                }
+                while (extended.size() <= fIndexes[pos])
+                {
+                    extended.add(new JsonObject());
+                }
+
+                object.setObjectList(name, extended);
+                list = extended;
+            }
+
+            set(list.get(fIndexes[pos]), pos + 1, values, single, previous);
+        }
+    }
+
+    private void setSingle(JsonObject object, int pos, List<String> value,
+        String previous)
+    {
+        final String name = fNames[pos];
+
+        final List<JsonObject> elements = object.getObjectList(name);
+        final List<String> found = new ArrayList<String>();
+        JsonObject replaced = null;
+        if (elements != null)
+        {
+            for (JsonObject element : elements)
+            {
+                found.clear();
+                get(element, pos + 1, found);
+
+                if (found.contains(value.get(0)))
+                {
+                    return;
+                } else if (replaced == null && previous != null
+                    && found.contains(previous))
+                {
+                    replaced = element;
+                }
+            }
+        }
+
+        // changes within elements are tracked by the elements
+        if (replaced != null)
+        {
+            set(replaced, pos + 1, value, true, null);
+            return;
+        }
+
+        // values only held by other elements must not get lost
+        final JsonObject element = new JsonObject();
+        set(element, pos + 1, value, true, null);
+
+        final List<JsonObject> extended = new ArrayList<JsonObject>();
+        if (elements != null)
+        {
+            extended.addAll(elements);
+        }
+        extended.add(element);
+        object.setObjectList(name, extended);
+    }
+
+    private void setAll(JsonObject object, int pos, List<String> values)
+    {
+        final String name = fNames[pos];
+
+        // values to set, in order
+        final Set<String> missing = new LinkedHashSet<String>(values);
+
+        // keep existing elements with their other fields, drop the others
+        final List<JsonObject> elements = new ArrayList<JsonObject>();
+        final List<JsonObject> oldElements = object.getObjectList(name);
+        if (oldElements != null)
+        {
+            final List<String> found = new ArrayList<String>();
+            for (JsonObject element : oldElements)
+            {
+                found.clear();
+                get(element, pos + 1, found);
+
+                if (found.size() == 1 && missing.remove(found.get(0)))
+                {
+                    elements.add(element);
+                }
+            }
+        }
+
+        final List<String> value = new ArrayList<String>(1);
+        for (String missingValue : missing)
+        {
+            value.clear();
+            value.add(missingValue);
+
+            JsonObject element = new JsonObject();
+            set(element, pos + 1, value, true, null);
+            elements.add(element);
+        }
+
+        // only marked as changed if the elements differ
+        object.setObjectList(name, elements);
+    }
+
+    /**
+     * Removes the value the path points to. For paths over all elements of a
+     * list, the list is removed.
+     * 
+     * @param object
+     *            object to remove the value from
+     * @return whether anything was removed
+     */
+    public boolean remove(JsonObject object)
+    {
+        JsonObject current = object;
+
+        for (int pos = 0; pos < fNames.length - 1; ++pos)
+        {
+            final String name = fNames[pos];
+
+            if (fIndexes[pos] == NO_INDEX)
+            {
+                current = current.getSubObject(name);
+            } else if (fIndexes[pos] == ALL)
+            {
+                return current.removeAttribute(name);
+            } else
+            {
+                List<JsonObject> list = current.getObjectList(name);
+                if (list == null || list.size() <= fIndexes[pos])
+                {
+                    return false;
+                }
+                current = list.get(fIndexes[pos]);
+            }
+
+            if (current == null)
+            {
+                return false;
+            }
+        }
+
+        return current.removeAttribute(fNames[fNames.length - 1]);
+    }
+
+    /**
+     * @return whether the path runs over all elements of a list
+     */
+    public boolean isAllElements()
+    {
+        for (int index : fIndexes)
+        {
+            if (index == ALL)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return fPath;
+    }
+}
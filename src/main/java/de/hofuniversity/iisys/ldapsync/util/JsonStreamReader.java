@@ -0,0 +1,328 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader extracting the records of a JSON collection response one at a time
+ * while it is streamed, without reading the whole response into memory.
+ * Records are the objects in the first array named "list", or in the
+ * top-level array if the response is one. The total number of results is
+ * picked up if it is encountered on the way. Records can be parsed lazily, so
+ * that only the attributes that are accessed are parsed.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class JsonStreamReader
+{
+    private static final String LIST_KEY = "list";
+    private static final String TOTAL_KEY = "totalResults";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader fReader;
+    private final char[] fBuffer;
+    private final StringBuilder fRecord;
+    private final boolean fLazy;
+
+    private int fPos, fLimit;
+    private boolean fInList, fListDone, fArray;
+    private int fTotalResults = -1;
+
+    /**
+     * Creates a reader reading records from the given character stream.
+     * Parameter may not be null.
+     * 
+     * @param reader
+     *            character stream to read from
+     */
+    public JsonStreamReader(Reader reader)
+    {
+        this(reader, false);
+    }
+
+    /**
+     * Creates a reader reading records from the given character stream,
+     * parsing them lazily if requested. Reader may not be null.
+     * 
+     * @param reader
+     *            character stream to read from
+     * @param lazy
+     *            whether records are parsed lazily
+     */
+    public JsonStreamReader(Reader reader, boolean lazy)
+    {
+        if (reader == null)
+        {
+            throw new NullPointerException("reader was null");
+        }
+
+        fReader = reader;
+        fBuffer = new char[BUFFER_SIZE];
+        fRecord = new StringBuilder();
+        fLazy = lazy;
+    }
+
+    /**
+     * Reads the next record of the collection. Returns null if there are no
+     * more records.
+     * 
+     * @return next record or null
+     * @throws IOException
+     *             if reading fails or the stream ends within a record
+     */
+    public JsonObject next() throws IOException
+    {
+        if (!fInList && (fListDone || !seekList()))
+        {
+            return null;
+        }
+
+        int c = skipSeparators();
+        while (c != -1 && c != '{' && c != ']')
+        {
+            // skip anything that isn't an object
+            c = skipSeparators();
+        }
+
+        if (c != '{')
+        {
+            fInList = false;
+            fListDone = true;
+            return null;
+        }
+
+        // parsed from the buffered record without copying it
+        readObject();
+        if (fLazy)
+        {
+            // the record buffer is reused, lazy records need their own text
+            return new JsonParser(fRecord.toString()).parseLazy();
+        }
+        return new JsonParser(fRecord).parseObject();
+    }
+
+    /**
+     * Skips any remaining records and reads the rest of the response, picking
+     * up the total number of results if it follows the records.
+     * 
+     * @throws IOException
+     *             if reading fails
+     */
+    public void drain() throws IOException
+    {
+        while (next() != null)
+        {
+            // skip
+        }
+
+        // scan the remainder
+        seekList();
+        fInList = false;
+        fListDone = true;
+    }
+
+    /**
+     * Returns the total number of results reported by the response, as far as
+     * it has been read. Returns -1 if it is not known (yet).
+     * 
+     * @return total number of results or -1
+     */
+    public int getTotalResults()
+    {
+        return fTotalResults;
+    }
+
+    /**
+     * Returns whether the records read so far came from a top-level array,
+     * as opposed to an array named "list" or no array at all.
+     * 
+     * @return whether the response is a top-level array
+     */
+    public boolean isArray()
+    {
+        return fArray;
+    }
+
+    /**
+     * Closes the underlying stream.
+     * 
+     * @throws IOException
+     *             if closing fails
+     */
+    public void close() throws IOException
+    {
+        fReader.close();
+    }
+
+    private boolean seekList() throws IOException
+    {
+        boolean first = true;
+        String key = null;
+
+        int c = read();
+        while (c != -1)
+        {
+            if (first && c == '[')
+            {
+                // top-level array
+                fInList = true;
+                fArray = true;
+                return true;
+            }
+
+            if (c == '"')
+            {
+                key = readString();
+            } else if (c == ':')
+            {
+                c = skipWhitespace();
+
+                if (LIST_KEY.equals(key) && c == '[')
+                {
+                    fInList = true;
+                    return true;
+                } else if (TOTAL_KEY.equals(key))
+                {
+                    c = readNumber(c);
+                    continue;
+                }
+                key = null;
+                continue;
+            } else if (!Character.isWhitespace(c))
+            {
+                key = null;
+            }
+
+            first &= Character.isWhitespace(c);
+            c = read();
+        }
+
+        fListDone = true;
+        return false;
+    }
+
+    private String readString() throws IOException
+    {
+        final StringBuilder builder = new StringBuilder();
+
+        int c = read();
+        while (c != -1 && c != '"')
+        {
+            if (c == '\\')
+            {
+                c = read();
+            }
+            builder.append((char) c);
+            c = read();
+        }
+
+        return builder.toString();
+    }
+
+    private int readNumber(int c) throws IOException
+    {
+        int value = 0;
+        boolean found = false;
+
+        while (c >= '0' && c <= '9')
+        {
+            value = value * 10 + c - '0';
+            found = true;
+            c = read();
+        }
+
+        if (found)
+        {
+            fTotalResults = value;
+        }
+
+        // first character after the number
+        return c;
+    }
+
+    private void readObject() throws IOException
+    {
+        fRecord.setLength(0);
+        fRecord.append('{');
+
+        int depth = 1;
+        boolean inString = false;
+        boolean escaped = false;
+
+        int c = 0;
+        while (depth > 0)
+        {
+            c = read();
+            if (c == -1)
+            {
+                throw new EOFException("stream ended within a record");
+            }
+            fRecord.append((char) c);
+
+            if (inString)
+            {
+                if (escaped)
+                {
+                    escaped = false;
+                } else if (c == '\\')
+                {
+                    escaped = true;
+                } else if (c == '"')
+                {
+                    inString = false;
+                }
+            } else if (c == '"')
+            {
+                inString = true;
+            } else if (c == '{' || c == '[')
+            {
+                ++depth;
+            } else if (c == '}' || c == ']')
+            {
+                --depth;
+            }
+        }
+    }
+
+    private int skipSeparators() throws IOException
+    {
+        int c = read();
+        while (c == ',' || Character.isWhitespace(c))
+        {
+            c = read();
+        }
+
+        return c;
+    }
+
+    private int skipWhitespace() throws IOException
+    {
+        int c = read();
+        while (c != -1 && Character.isWhitespace(c))
+        {
+            c = read();
+        }
+
+        return c;
+    }
+
+    private int read() throws IOException
+    {
+        if (fPos == fLimit)
+        {
+            fLimit = fReader.read(fBuffer, 0, fBuffer.length);
+            fPos = 0;
+
+            if (fLimit <= 0)
+            {
+                fLimit = 0;
+                return -1;
+            }
+        }
+
+        return fBuffer[fPos++];
+    }
+}
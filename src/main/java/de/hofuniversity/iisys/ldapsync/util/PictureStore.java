@@ -0,0 +1,319 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Store for pictures published as files in a folder that is served under a
+ * base URL. Files are named after a hash of the picture's content, so that
+ * identical pictures are only written once and a picture's URL only changes
+ * when its content does. Writing and optional downscaling are done in the
+ * background on a bounded pool of threads, files appear atomically once they
+ * are complete. Downscaled pictures are always stored as PNG, pictures in
+ * unknown formats are stored as they are.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class PictureStore
+{
+    private static final String PNG = ".png";
+    private static final String JPEG = ".jpg";
+    private static final String GIF = ".gif";
+    private static final String OTHER = ".bin";
+
+    // tasks waiting per thread before callers write themselves
+    private static final int QUEUE_FACTOR = 4;
+
+    private final File fFolder;
+    private final String fBaseUrl;
+    private final int fMaxSize;
+
+    private final ThreadPoolExecutor fExecutor;
+    private final Set<String> fKnownFiles;
+    private final Map<String, Future<String>> fPending;
+
+    /**
+     * Creates a store writing to the given folder, which is served under the
+     * given base URL. Pictures larger than the given maximum width or height
+     * in pixels are downscaled, unless the maximum is not positive. Folder and
+     * URL may not be null.
+     * 
+     * @param folder
+     *            folder to write pictures to
+     * @param baseUrl
+     *            URL the folder is served under, ending with a separator
+     * @param threads
+     *            number of threads writing pictures
+     * @param maxSize
+     *            maximum width and height of pictures or 0
+     */
+    public PictureStore(String folder, String baseUrl, int threads,
+        int maxSize)
+    {
+        if (folder == null)
+        {
+            throw new NullPointerException("picture folder was null");
+        }
+        if (baseUrl == null)
+        {
+            throw new NullPointerException("picture URL was null");
+        }
+
+        fFolder = new File(folder);
+        fBaseUrl = baseUrl;
+        fMaxSize = maxSize;
+
+        // callers write themselves when the queue is full
+        final int count = Math.max(1, threads);
+        fExecutor = new ThreadPoolExecutor(count, count, 0,
+            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(count
+                * QUEUE_FACTOR), new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "picture-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        fKnownFiles = Collections.newSetFromMap(
+            new ConcurrentHashMap<String, Boolean>());
+        fPending = new LinkedHashMap<String, Future<String>>();
+    }
+
+    /**
+     * Returns the URL of the given picture, writing it in the background if
+     * it has not been stored before. Call {@link #await()} before publishing
+     * URLs to make sure that the files exist.
+     * 
+     * @param data
+     *            binary picture data
+     * @return URL of the picture
+     */
+    public String store(final byte[] data)
+    {
+        final String extension = getExtension(data);
+
+        // only pictures in known formats can be decoded for downscaling
+        final boolean scaled = fMaxSize > 0 && !OTHER.equals(extension);
+        final String fileName;
+        if (scaled)
+        {
+            fileName = Fingerprint.ofValue(data) + "_" + fMaxSize + PNG;
+        } else
+        {
+            fileName = Fingerprint.ofValue(data) + extension;
+        }
+
+        if (!fKnownFiles.contains(fileName))
+        {
+            final File file = new File(fFolder, fileName);
+            if (file.exists())
+            {
+                fKnownFiles.add(fileName);
+            } else if (fKnownFiles.add(fileName))
+            {
+                Future<String> result = fExecutor.submit(new Callable<String>()
+                {
+                    public String call() throws Exception
+                    {
+                        write(file, data, scaled);
+                        return fileName;
+                    }
+                });
+
+                synchronized (fPending)
+                {
+                    fPending.put(fBaseUrl + fileName, result);
+                }
+            }
+        }
+
+        return fBaseUrl + fileName;
+    }
+
+    /**
+     * Blocks until all pictures stored so far have been written and returns
+     * the URLs of pictures that could not be written, which must not be
+     * published. They are tried again when they are stored the next time.
+     * 
+     * @return URLs of pictures that could not be written
+     */
+    public Set<String> await()
+    {
+        final Set<String> failed = new HashSet<String>();
+
+        while (true)
+        {
+            Entry<String, Future<String>> result = null;
+            synchronized (fPending)
+            {
+                if (fPending.isEmpty())
+                {
+                    break;
+                }
+                Iterator<Entry<String, Future<String>>> iter = fPending
+                    .entrySet().iterator();
+                result = iter.next();
+                iter.remove();
+            }
+
+            try
+            {
+                result.getValue().get();
+            } catch (InterruptedException e)
+            {
+                // not known to be written
+                Thread.currentThread().interrupt();
+                failed.add(result.getKey());
+                synchronized (fPending)
+                {
+                    failed.addAll(fPending.keySet());
+                }
+                break;
+            } catch (Exception e)
+            {
+                e.printStackTrace();
+                failed.add(result.getKey());
+            }
+        }
+
+        return failed;
+    }
+
+    private String getExtension(byte[] data)
+    {
+        String extension = OTHER;
+
+        if (data.length > 3 && (data[0] & 0xFF) == 0x89
+            && data[1] == 'P' && data[2] == 'N' && data[3] == 'G')
+        {
+            extension = PNG;
+        } else if (data.length > 2 && (data[0] & 0xFF) == 0xFF
+            && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF)
+        {
+            extension = JPEG;
+        } else if (data.length > 3 && data[0] == 'G' && data[1] == 'I'
+            && data[2] == 'F' && data[3] == '8')
+        {
+            extension = GIF;
+        }
+
+        return extension;
+    }
+
+    private void write(File file, byte[] data, boolean scaled)
+        throws Exception
+    {
+        try
+        {
+            byte[] content = data;
+            if (scaled)
+            {
+                content = scale(data);
+            }
+
+            if (!fFolder.exists())
+            {
+                fFolder.mkdirs();
+            }
+
+            // write to a temporary file first, then move it in place
+            File tmp = File.createTempFile("picture", ".tmp", fFolder);
+            try
+            {
+                OutputStream out = new FileOutputStream(tmp);
+                try
+                {
+                    out.write(content);
+                } finally
+                {
+                    out.close();
+                }
+
+                try
+                {
+                    Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally
+            {
+                tmp.delete();
+            }
+        } catch (Exception e)
+        {
+            // try again next time
+            fKnownFiles.remove(file.getName());
+            throw e;
+        }
+    }
+
+    private byte[] scale(byte[] data) throws Exception
+    {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(
+            data));
+        if (image == null)
+        {
+            throw new IOException("picture could not be decoded");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        final int larger = Math.max(width, height);
+        if (larger > fMaxSize)
+        {
+            width = Math.max(1, width * fMaxSize / larger);
+            height = Math.max(1, height * fMaxSize / larger);
+        }
+
+        final BufferedImage scaled = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        try
+        {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally
+        {
+            graphics.dispose();
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(scaled, "png", out);
+
+        return out.toByteArray();
+    }
+}
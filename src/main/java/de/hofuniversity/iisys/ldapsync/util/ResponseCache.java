@@ -0,0 +1,230 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Local cache of HTTP GET responses, revalidated with conditional requests.
+ * Responses are cached in files named after their URL while they are read,
+ * together with their validators. If the server reports that a response did
+ * not change, it is read from its file instead. Responses without validators
+ * are not cached, since they can't be revalidated. Access is thread-safe for
+ * different URLs.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ResponseCache
+{
+    private static final String SUFFIX = ".cache";
+    private static final String ETAG_KEY = ".etag";
+    private static final String MODIFIED_KEY = ".modified";
+
+    private final HttpTransport fTransport;
+    private final File fFolder;
+    private final StateStore fValidators;
+
+    /**
+     * Creates a cache storing responses in the given folder, requesting them
+     * using the given transport. The validators of cached responses are kept
+     * in the given store. No parameter may be null.
+     * 
+     * @param transport
+     *            transport to send requests with
+     * @param folder
+     *            folder to store responses in
+     * @param validators
+     *            store for validators of cached responses
+     */
+    public ResponseCache(HttpTransport transport, String folder,
+        StateStore validators)
+    {
+        if (transport == null)
+        {
+            throw new NullPointerException("transport was null");
+        }
+        if (folder == null)
+        {
+            throw new NullPointerException("cache folder was null");
+        }
+        if (validators == null)
+        {
+            throw new NullPointerException("validator store was null");
+        }
+
+        fTransport = transport;
+        fFolder = new File(folder);
+        fValidators = validators;
+    }
+
+    /**
+     * Returns the response to a GET request to the given URL, either from the
+     * server or from the cache if it did not change. The response has to be
+     * read to its end and closed to be cached.
+     * 
+     * @param url
+     *            URL to request
+     * @return stream of the response body
+     * @throws IOException
+     *             if the request fails or an error status is returned
+     */
+    public InputStream get(String url) throws IOException
+    {
+        final String key = Fingerprint.ofValue(url);
+        final File file = new File(fFolder, key + SUFFIX);
+
+        // only revalidate responses that are still there
+        HttpValidators validators = new HttpValidators(null, null);
+        if (file.exists())
+        {
+            validators = new HttpValidators(fValidators.get(key + ETAG_KEY),
+                fValidators.get(key + MODIFIED_KEY));
+        }
+
+        final InputStream response = fTransport.get(url, validators);
+        if (response == null)
+        {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+
+        if (validators.isEmpty())
+        {
+            // can't be revalidated
+            fValidators.remove(key + ETAG_KEY);
+            fValidators.remove(key + MODIFIED_KEY);
+            return response;
+        }
+
+        if (!fFolder.exists())
+        {
+            fFolder.mkdirs();
+        }
+
+        final File tmp = File.createTempFile(key, ".tmp", fFolder);
+        return new CachingStream(response, tmp, file, key, validators);
+    }
+
+    /**
+     * Stores the validators of responses cached so far.
+     */
+    public void save()
+    {
+        fValidators.save();
+    }
+
+    private void commit(File tmp, File file, String key,
+        HttpValidators validators) throws IOException
+    {
+        try
+        {
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        fValidators.put(key + ETAG_KEY, validators.getEtag());
+        fValidators.put(key + MODIFIED_KEY, validators.getLastModified());
+    }
+
+    /**
+     * Response stream copying everything read to a temporary file, which
+     * replaces the cached response if the stream was read to its end.
+     */
+    private class CachingStream extends FilterInputStream
+    {
+        private final OutputStream fOut;
+        private final File fTmp, fFile;
+        private final String fKey;
+        private final HttpValidators fNewValidators;
+
+        private boolean fComplete;
+
+        public CachingStream(InputStream in, File tmp, File file, String key,
+            HttpValidators validators) throws IOException
+        {
+            super(in);
+
+            fOut = new FileOutputStream(tmp);
+            fTmp = tmp;
+            fFile = file;
+            fKey = key;
+            fNewValidators = validators;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final int b = in.read();
+            if (b == -1)
+            {
+                fComplete = true;
+            } else
+            {
+                fOut.write(b);
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            final int read = in.read(b, off, len);
+            if (read == -1)
+            {
+                fComplete = true;
+            } else
+            {
+                fOut.write(b, off, read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            // skipped data has to be cached as well
+            final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            final int read = read(buffer, 0, buffer.length);
+
+            return Math.max(0, read);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                fOut.close();
+                in.close();
+
+                if (fComplete)
+                {
+                    commit(fTmp, fFile, fKey, fNewValidators);
+                }
+            } finally
+            {
+                fTmp.delete();
+            }
+        }
+    }
+}
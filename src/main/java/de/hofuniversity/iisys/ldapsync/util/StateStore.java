@@ -0,0 +1,212 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simple key-value store for state that has to survive between
+ * synchronization cycles and restarts, backed by a properties file. If no
+ * file is given, the state is only kept in memory. Access is thread-safe,
+ * saving replaces the file atomically if the file system supports it.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class StateStore
+{
+    private static final String SUFFIX = ".properties";
+
+    private final File fFile;
+    private final Map<String, String> fValues;
+
+    private volatile boolean fChanged;
+
+    /**
+     * Opens the store with the given name in the given folder, reading any
+     * existing state. If the folder is null or empty, a store that is only
+     * kept in memory is returned. Name may not be null or empty.
+     * 
+     * @param folder
+     *            folder to store state in or null
+     * @param name
+     *            name of the store
+     * @return store for the given name
+     */
+    public static StateStore open(String folder, String name)
+    {
+        if (name == null || name.isEmpty())
+        {
+            throw new NullPointerException("store name was null");
+        }
+
+        File file = null;
+        if (folder != null && !folder.isEmpty())
+        {
+            file = new File(folder, name + SUFFIX);
+        }
+
+        return new StateStore(file);
+    }
+
+    /**
+     * Creates a store backed by the given file, reading any existing state.
+     * If the file is null, the state is only kept in memory.
+     * 
+     * @param file
+     *            file to store state in or null
+     */
+    public StateStore(File file)
+    {
+        fFile = file;
+        fValues = new ConcurrentHashMap<String, String>();
+
+        if (fFile != null && fFile.exists())
+        {
+            try
+            {
+                load();
+            } catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void load() throws Exception
+    {
+        Properties props = new Properties();
+
+        InputStream in = new BufferedInputStream(new FileInputStream(fFile));
+        try
+        {
+            props.load(in);
+        } finally
+        {
+            in.close();
+        }
+
+        for (String key : props.stringPropertyNames())
+        {
+            fValues.put(key, props.getProperty(key));
+        }
+    }
+
+    /**
+     * @param key
+     *            key of the value
+     * @return stored value or null
+     */
+    public String get(String key)
+    {
+        return fValues.get(key);
+    }
+
+    /**
+     * Stores a value under the given key, null values remove the key.
+     * 
+     * @param key
+     *            key of the value
+     * @param value
+     *            value to store or null
+     */
+    public void put(String key, String value)
+    {
+        String old = null;
+
+        if (value == null)
+        {
+            old = fValues.remove(key);
+            fChanged |= old != null;
+        } else
+        {
+            old = fValues.put(key, value);
+            fChanged |= !value.equals(old);
+        }
+    }
+
+    /**
+     * Removes the value stored under the given key.
+     * 
+     * @param key
+     *            key of the value
+     */
+    public void remove(String key)
+    {
+        put(key, null);
+    }
+
+    /**
+     * @return set of all keys, backed by the store
+     */
+    public Set<String> keySet()
+    {
+        return fValues.keySet();
+    }
+
+    /**
+     * Writes the state to its file if it changed since it was loaded or last
+     * saved. Does nothing for stores that are only kept in memory.
+     */
+    public synchronized void save()
+    {
+        if (fFile == null || !fChanged)
+        {
+            return;
+        }
+        fChanged = false;
+
+        Properties props = new Properties();
+        for (Entry<String, String> valE : fValues.entrySet())
+        {
+            props.setProperty(valE.getKey(), valE.getValue());
+        }
+
+        File tmp = new File(fFile.getPath() + ".tmp");
+        try
+        {
+            File folder = fFile.getAbsoluteFile().getParentFile();
+            if (!folder.exists())
+            {
+                folder.mkdirs();
+            }
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                tmp));
+            try
+            {
+                props.store(out, null);
+            } finally
+            {
+                out.close();
+            }
+
+            // replace old state
+            try
+            {
+                Files.move(tmp.toPath(), fFile.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tmp.toPath(), fFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e)
+        {
+            fChanged = true;
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+/**
+ * Thread-safe token bucket that limits the rate at which a resource is
+ * consumed. Tokens are refilled continuously at the configured rate up to a
+ * capacity of one second's worth of tokens. Callers requesting more tokens
+ * than available are blocked until enough tokens have been refilled.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class TokenBucket
+{
+    private final double fRate;
+    private final double fCapacity;
+
+    private double fTokens;
+    private long fLastRefill;
+
+    /**
+     * Creates a full token bucket refilling at the given rate. Throws an
+     * IllegalArgumentException if the rate is not positive.
+     * 
+     * @param rate
+     *            tokens per second
+     */
+    public TokenBucket(double rate)
+    {
+        if (rate <= 0)
+        {
+            throw new IllegalArgumentException("rate must be positive: "
+                + rate);
+        }
+
+        fRate = rate;
+        fCapacity = Math.max(1, rate);
+        fTokens = fCapacity;
+        fLastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes the given number of tokens from the bucket, waiting until they are
+     * available. Requests larger than the bucket's capacity are allowed and
+     * put the bucket into debt, delaying subsequent requests accordingly.
+     * 
+     * @param tokens
+     *            number of tokens to take
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public void acquire(double tokens) throws InterruptedException
+    {
+        long wait = reserve(tokens);
+
+        if (wait > 0)
+        {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+
+    private synchronized long reserve(double tokens)
+    {
+        final long now = System.nanoTime();
+
+        // refill
+        fTokens = Math.min(fCapacity, fTokens + (now - fLastRefill) / 1e9
+            * fRate);
+        fLastRefill = now;
+
+        // take tokens, waiting for a deficit to be refilled
+        fTokens -= tokens;
+
+        long wait = 0;
+        if (fTokens < 0)
+        {
+            wait = (long) (-fTokens / fRate * 1e9);
+        }
+
+        return wait;
+    }
+}
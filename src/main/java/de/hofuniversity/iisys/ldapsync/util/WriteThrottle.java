@@ -0,0 +1,122 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+/**
+ * Rate limiter for write operations against a single target, limiting both
+ * the number of operations and the number of bytes written per second. All
+ * threads writing to the same target should share one instance. Limits that
+ * are not positive are not enforced.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class WriteThrottle
+{
+    private final TokenBucket fOps, fBytes;
+
+    private long fThrottledTime;
+    private long fOpCount, fByteCount;
+
+    /**
+     * Creates a throttle with the given limits, where values that are not
+     * positive mean no limit.
+     * 
+     * @param opsPerSec
+     *            maximum number of operations per second
+     * @param bytesPerSec
+     *            maximum number of bytes per second
+     */
+    public WriteThrottle(double opsPerSec, double bytesPerSec)
+    {
+        if (opsPerSec > 0)
+        {
+            fOps = new TokenBucket(opsPerSec);
+        } else
+        {
+            fOps = null;
+        }
+
+        if (bytesPerSec > 0)
+        {
+            fBytes = new TokenBucket(bytesPerSec);
+        } else
+        {
+            fBytes = null;
+        }
+    }
+
+    /**
+     * Blocks until the given number of operations and bytes may be written.
+     * If the thread is interrupted while waiting, it returns early with the
+     * interrupted flag set.
+     * 
+     * @param ops
+     *            number of operations
+     * @param bytes
+     *            estimated number of bytes
+     */
+    public void acquire(int ops, long bytes)
+    {
+        final long start = System.currentTimeMillis();
+
+        try
+        {
+            if (fOps != null && ops > 0)
+            {
+                fOps.acquire(ops);
+            }
+            if (fBytes != null && bytes > 0)
+            {
+                fBytes.acquire(bytes);
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this)
+        {
+            fThrottledTime += System.currentTimeMillis() - start;
+            fOpCount += ops;
+            fByteCount += bytes;
+        }
+    }
+
+    /**
+     * @return whether any limits are enforced
+     */
+    public boolean isLimited()
+    {
+        return fOps != null || fBytes != null;
+    }
+
+    /**
+     * @return total time in milliseconds writers were blocked
+     */
+    public synchronized long getThrottledTime()
+    {
+        return fThrottledTime;
+    }
+
+    /**
+     * @return total number of operations passed through the throttle
+     */
+    public synchronized long getOpCount()
+    {
+        return fOpCount;
+    }
+
+    /**
+     * @return total number of bytes passed through the throttle
+     */
+    public synchronized long getByteCount()
+    {
+        return fByteCount;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return fOpCount + " ops, " + fByteCount + " bytes, throttled "
+            + fThrottledTime + " ms";
+    }
+}
@@ -0,0 +1,318 @@
+package de.hofuniversity.iisys.ldapsync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchResult;
+
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ldapsync.config.SyncConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.endpoints.ASyncEndpoint;
+import de.hofuniversity.iisys.ldapsync.endpoints.ISyncEndpoint;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
+
+/**
+ * Tests for the search filters built by the scheduler and for consecutive
+ * synchronizations against an in-memory directory.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class SyncSchedulerTest
+{
+    @Test
+    public void testPlainValue()
+    {
+        assertEquals("jane.doe", SyncScheduler.escapeFilterValue("jane.doe"));
+    }
+
+    @Test
+    public void testSpecialCharacters()
+    {
+        assertEquals("a\\2a\\28b\\29\\5c\\00", SyncScheduler
+            .escapeFilterValue("a*(b)\\\0"));
+    }
+
+    @Test
+    public void testInjection()
+    {
+        assertEquals("x\\29\\28uid=\\2a", SyncScheduler
+            .escapeFilterValue("x)(uid=*"));
+    }
+
+    @Test
+    public void testUserDeletedBetweenSyncs() throws Exception
+    {
+        final MemoryConnector ldap = new MemoryConnector("jdoe", "asmith");
+        final LdapBuffer buffer = new LdapBuffer(ldap, new ILdapUserFactory()
+        {
+            @Override
+            public ILdapUser createUser(String name)
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+        final NameEndpoint endpoint = new NameEndpoint(buffer, "jdoe",
+            "asmith");
+
+        final SyncScheduler scheduler = new SyncScheduler(new SyncConfig(),
+            ldap, new ISyncEndpointFactory()
+            {
+                @Override
+                public List<ISyncEndpoint> createEndpoints()
+                {
+                    return Collections.<ISyncEndpoint> singletonList(endpoint);
+                }
+            }, buffer);
+
+        scheduler.sync(new SyncRequest());
+        assertEquals(2, endpoint.getNames().size());
+
+        // the deleted user is neither found by a targeted nor a full sync
+        ldap.remove("asmith");
+        scheduler.sync(new SyncRequest(Collections.singleton("asmith")));
+        assertFalse(buffer.hasUser("asmith"));
+        assertFalse(endpoint.getNames().contains("asmith"));
+        assertTrue(endpoint.getNames().contains("jdoe"));
+
+        ldap.remove("jdoe");
+        scheduler.sync(new SyncRequest());
+        assertTrue(buffer.getAllUsers().isEmpty());
+        assertTrue(endpoint.getNames().isEmpty());
+    }
+
+    /**
+     * Directory only holding the UIDs of its users, answering full and
+     * targeted queries as built by the scheduler.
+     */
+    private static class MemoryConnector implements ILdapConnector
+    {
+        private final Set<String> fUsers;
+
+        public MemoryConnector(String... users)
+        {
+            fUsers = new HashSet<String>();
+            Collections.addAll(fUsers, users);
+        }
+
+        @Override
+        public void connect()
+        {
+            // nothing to connect to
+        }
+
+        @Override
+        public void disconnect()
+        {
+            // nothing to disconnect from
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isReadOnly()
+        {
+            return true;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration nameQuery(String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration filterQuery(String filter)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration query(String name, String filter)
+        {
+            final List<SearchResult> results = new ArrayList<SearchResult>();
+
+            for (String uid : fUsers)
+            {
+                if (filter.equals("uid=*")
+                    || filter.contains("(uid=" + uid + ")"))
+                {
+                    final BasicAttributes atts = new BasicAttributes();
+                    atts.put("uid", uid);
+                    results.add(new SearchResult("uid=" + uid, null, atts));
+                }
+            }
+
+            final Iterator<SearchResult> iter = results.iterator();
+            return new NamingEnumeration<SearchResult>()
+            {
+                @Override
+                public boolean hasMoreElements()
+                {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public SearchResult nextElement()
+                {
+                    return iter.next();
+                }
+
+                @Override
+                public boolean hasMore()
+                {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public SearchResult next()
+                {
+                    return iter.next();
+                }
+
+                @Override
+                public void close()
+                {
+                    // nothing to release
+                }
+            };
+        }
+
+        @Override
+        public void update(String name, ModificationItem[] mods)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void create(String name, DirContext object)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(String name)
+        {
+            fUsers.remove(name);
+        }
+    }
+
+    /**
+     * End point only holding the names of its users, deleting those that no
+     * longer exist in LDAP.
+     */
+    private static class NameEndpoint extends ASyncEndpoint
+    {
+        private final Set<String> fNames;
+
+        public NameEndpoint(LdapBuffer ldap, String... names)
+        {
+            super(ldap, getConfig());
+
+            fNames = new HashSet<String>();
+            Collections.addAll(fNames, names);
+        }
+
+        private static SyncEndpointConfig getConfig()
+        {
+            final SyncEndpointConfig config = new SyncEndpointConfig();
+            config.setName("names");
+            config.setProperties(new HashMap<String, String>());
+            config.setMapping(new ArrayList<SyncRule>());
+            config.setDeleteOwnEntries(true);
+
+            return config;
+        }
+
+        public Set<String> getNames()
+        {
+            return fNames;
+        }
+
+        @Override
+        protected List<Object> getValues(String name, String att)
+        {
+            return null;
+        }
+
+        @Override
+        protected void setAttribute(String name, String att, Object val)
+        {
+            // no attributes
+        }
+
+        @Override
+        protected void setAttribute(String name, String att,
+            List<Object> vals)
+        {
+            // no attributes
+        }
+
+        @Override
+        protected void addValues(String name, String att, List<Object> vals)
+        {
+            // no attributes
+        }
+
+        @Override
+        protected void removeAttribute(String name, String att)
+        {
+            // no attributes
+        }
+
+        @Override
+        protected Set<String> getUserNames()
+        {
+            return new HashSet<String>(fNames);
+        }
+
+        @Override
+        protected void createUser(ILdapUser user)
+        {
+            fNames.add(user.getUid());
+        }
+
+        @Override
+        protected void deleteUser(String name)
+        {
+            fNames.remove(name);
+        }
+
+        @Override
+        protected void preHook()
+        {
+            // nothing to prepare
+        }
+
+        @Override
+        protected void postHook()
+        {
+            // nothing to clean up
+        }
+    }
+}
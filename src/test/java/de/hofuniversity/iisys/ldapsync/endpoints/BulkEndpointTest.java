@@ -0,0 +1,310 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ldapsync.LdapBuffer;
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
+import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
+import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncOperations;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
+
+/**
+ * Tests driving an end point through the bulk interface in batches, without
+ * an actual directory.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class BulkEndpointTest
+{
+    private LdapBuffer fBuffer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        fBuffer = new LdapBuffer(
+            new ShindigGraphEndpointTest.ReadOnlyConnector(),
+            new ILdapUserFactory()
+            {
+                @Override
+                public ILdapUser createUser(String name)
+                {
+                    throw new UnsupportedOperationException();
+                }
+            });
+
+        fBuffer.setData(ShindigGraphEndpointTest.getResults(getLdapUser(
+            "user1", "One"), getLdapUser("user2", "Two"), getLdapUser(
+            "user3", "Three"), getLdapUser("user4", "Four"), getLdapUser(
+            "user5", "Five")));
+    }
+
+    @Test
+    public void testBatches()
+    {
+        final BulkTestEndpoint endpoint = new BulkTestEndpoint(fBuffer, 2);
+        endpoint.addUser("user1", "One");
+        endpoint.addUser("gone", "Gone");
+
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        assertNull(endpoint.getUsers().get("gone"));
+        assertEquals(5, endpoint.getUsers().size());
+        for (int i = 1; i <= 5; ++i)
+        {
+            assertEquals(1, endpoint.getUsers().get("user" + i).get(
+                "displayName").size());
+        }
+
+        // one delete, four creates, then the changes of two users at a time
+        // except for the unchanged first one
+        assertEquals(Arrays.asList(1, 2, 2, 1, 2, 1), endpoint
+            .getBatchSizes());
+        assertEquals(Arrays.asList(2, 2, 1), endpoint.getReadSizes());
+
+        // merged values were applied, so nothing is left to do
+        endpoint.getBatchSizes().clear();
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+        assertTrue(endpoint.getBatchSizes().isEmpty());
+    }
+
+    @Test
+    public void testSingleBatch()
+    {
+        final BulkTestEndpoint endpoint = new BulkTestEndpoint(fBuffer, 0);
+
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        assertEquals(5, endpoint.getUsers().size());
+        assertEquals(Arrays.asList(5, 5), endpoint.getBatchSizes());
+        assertEquals(Arrays.asList(5), endpoint.getReadSizes());
+    }
+
+    private SearchResult getLdapUser(String uid, String cn)
+    {
+        final BasicAttributes atts = new BasicAttributes();
+        atts.put("uid", uid);
+        atts.put("cn", cn);
+
+        return new SearchResult("uid=" + uid, null, atts);
+    }
+
+    /**
+     * End point keeping its users in memory that only supports bulk reads
+     * and writes, apart from reading values back to check merges.
+     */
+    private static class BulkTestEndpoint extends ASyncEndpoint implements
+        IBulkEndpoint
+    {
+        private final Map<String, Map<String, List<Object>>> fUsers;
+        private final List<Integer> fBatchSizes, fReadSizes;
+
+        public BulkTestEndpoint(LdapBuffer ldap, int batchSize)
+        {
+            super(ldap, getConfig(batchSize));
+
+            fUsers = new HashMap<String, Map<String, List<Object>>>();
+            fBatchSizes = new ArrayList<Integer>();
+            fReadSizes = new ArrayList<Integer>();
+        }
+
+        private static SyncEndpointConfig getConfig(int batchSize)
+        {
+            final List<SyncRule> rules = new ArrayList<SyncRule>();
+            rules.add(getRule("cn", "displayName", SyncDirections.BOTH,
+                SyncOperations.ADD_TO_LIST));
+
+            final SyncEndpointConfig config = new SyncEndpointConfig();
+            config.setName("bulk-test");
+            config.setProperties(new HashMap<String, String>());
+            config.setMapping(rules);
+            config.setCreateOwnEntries(true);
+            config.setDeleteOwnEntries(true);
+            config.setBatchSize(batchSize);
+
+            return config;
+        }
+
+        private static SyncRule getRule(String ldapProp, String endPointProp,
+            SyncDirections direction, SyncOperations operation)
+        {
+            final SyncRule rule = new SyncRule();
+            rule.setLdapProp(ldapProp);
+            rule.setEndPointProp(endPointProp);
+            rule.setDirection(direction);
+            rule.setOperation(operation);
+
+            return rule;
+        }
+
+        public void addUser(String name, String displayName)
+        {
+            final Map<String, List<Object>> user =
+                new HashMap<String, List<Object>>();
+            user.put("displayName", new ArrayList<Object>(Arrays
+                .asList(displayName)));
+
+            fUsers.put(name, user);
+        }
+
+        public Map<String, Map<String, List<Object>>> getUsers()
+        {
+            return fUsers;
+        }
+
+        public List<Integer> getBatchSizes()
+        {
+            return fBatchSizes;
+        }
+
+        public List<Integer> getReadSizes()
+        {
+            return fReadSizes;
+        }
+
+        @Override
+        public Map<String, Map<String, List<Object>>> getValues(
+            Collection<String> names, Collection<String> atts)
+        {
+            fReadSizes.add(names.size());
+
+            final Map<String, Map<String, List<Object>>> values =
+                new HashMap<String, Map<String, List<Object>>>();
+            for (String name : names)
+            {
+                final Map<String, List<Object>> userValues =
+                    new HashMap<String, List<Object>>();
+                for (String att : atts)
+                {
+                    userValues.put(att, getValues(name, att));
+                }
+                values.put(name, userValues);
+            }
+
+            return values;
+        }
+
+        @Override
+        public void apply(ChangeBatch batch)
+        {
+            fBatchSizes.add(batch.size());
+
+            for (ILdapUser user : batch.getCreates())
+            {
+                fUsers.put(user.getUid(),
+                    new HashMap<String, List<Object>>());
+            }
+
+            for (Entry<String, List<RuleChange>> updateE : batch.getUpdates()
+                .entrySet())
+            {
+                final Map<String, List<Object>> user = fUsers.get(updateE
+                    .getKey());
+
+                for (RuleChange change : updateE.getValue())
+                {
+                    final Set<Object> values = new LinkedHashSet<Object>();
+                    if (change.isAdd() && user.get(change.getAtt()) != null)
+                    {
+                        values.addAll(user.get(change.getAtt()));
+                    }
+                    values.addAll(change.getValues());
+
+                    user.put(change.getAtt(), new ArrayList<Object>(values));
+                }
+            }
+
+            for (String name : batch.getDeletes())
+            {
+                fUsers.remove(name);
+            }
+        }
+
+        @Override
+        protected List<Object> getValues(String name, String att)
+        {
+            final Map<String, List<Object>> user = fUsers.get(name);
+
+            return user != null ? user.get(att) : null;
+        }
+
+        @Override
+        protected void setAttribute(String name, String att, Object val)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void setAttribute(String name, String att,
+            List<Object> vals)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void addValues(String name, String att, List<Object> vals)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void removeAttribute(String name, String att)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected Set<String> getUserNames()
+        {
+            return new LinkedHashSet<String>(fUsers.keySet());
+        }
+
+        @Override
+        protected void createUser(ILdapUser user)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void deleteUser(String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void preHook()
+        {
+            // nothing to prepare
+        }
+
+        @Override
+        protected void postHook()
+        {
+            // nothing to clean up
+        }
+    }
+}
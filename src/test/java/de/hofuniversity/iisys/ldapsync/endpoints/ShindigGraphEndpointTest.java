@@ -0,0 +1,481 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ldapsync.ILdapConnector;
+import de.hofuniversity.iisys.ldapsync.LdapBuffer;
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
+import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
+import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncOperations;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
+import de.hofuniversity.iisys.ldapsync.util.JsonObject;
+import de.hofuniversity.iisys.ldapsync.util.ShindigStandInServer;
+
+/**
+ * Tests synchronizing users from LDAP to the Shindig stand-in server through
+ * the Shindig graph end point, without an actual directory.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ShindigGraphEndpointTest
+{
+    private ShindigStandInServer fServer;
+    private LdapBuffer fBuffer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        fServer = new ShindigStandInServer(0, 2);
+
+        JsonObject user = new JsonObject();
+        user.setSingleAttribute("id", "jdoe");
+        user.setSingleAttribute("displayName", "Old Name");
+        user.setSingleAttribute("name.givenName", "John");
+        user.setSingleAttribute("name.familyName", "Doe");
+        fServer.addUser(user);
+
+        user = new JsonObject();
+        user.setSingleAttribute("id", "gone");
+        user.setSingleAttribute("displayName", "Gone");
+        fServer.addUser(user);
+
+        fServer.start();
+
+        fBuffer = new LdapBuffer(new ReadOnlyConnector(),
+            new ILdapUserFactory()
+            {
+                @Override
+                public ILdapUser createUser(String name)
+                {
+                    throw new UnsupportedOperationException();
+                }
+            });
+    }
+
+    @After
+    public void tearDown()
+    {
+        fServer.stop();
+    }
+
+    @Test
+    public void testFullSync() throws Exception
+    {
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org"), getLdapUser("asmith", "Anna Smith",
+            "Anna", "Smith", "asmith@example.org")));
+
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(getConfig(),
+            fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        // changed, created and deleted
+        JsonObject user = fServer.getUser("jdoe");
+        assertEquals("John Doe", user.getSingleAttribute("displayName"));
+        assertEquals("Doe", user.getSingleAttribute("name.familyName"));
+        assertEquals("jdoe@example.org", user.getObjectList("emails").get(0)
+            .getSingleAttribute("value"));
+
+        user = fServer.getUser("asmith");
+        assertNotNull(user);
+        assertEquals("Anna Smith", user.getSingleAttribute("displayName"));
+
+        assertNull(fServer.getUser("gone"));
+
+        // new users are created with their IDs first, then updated
+        assertEquals(4, endpoint.getWriteCount());
+
+        // nothing left to do
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+        assertEquals(0, endpoint.getWriteCount());
+    }
+
+    @Test
+    public void testCreateWithPaths() throws Exception
+    {
+        // no surname
+        final BasicAttributes atts = new BasicAttributes();
+        atts.put("uid", "asmith");
+        atts.put("cn", "Anna Smith");
+        atts.put("givenName", "Anna");
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org"), new SearchResult("uid=asmith", null,
+            atts)));
+
+        final SyncEndpointConfig config = getConfig();
+        config.getProperties().put("path-name.givenName", "name.first");
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(config, fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        final JsonObject user = fServer.getUser("asmith");
+        assertEquals("Anna Smith", user.getSingleAttribute("name.formatted"));
+        assertEquals("Anna", user.getSingleAttribute("name.first"));
+        assertNull(user.getSingleAttribute("name.givenName"));
+        assertNull(user.getSingleAttribute("name.familyName"));
+    }
+
+    @Test
+    public void testThumbnailDataUrl() throws Exception
+    {
+        final BasicAttributes atts = new BasicAttributes();
+        atts.put("uid", "jdoe");
+        atts.put("cn", "John Doe");
+        atts.put("jpegPhoto", new byte[] { 1, 2, 3 });
+        fBuffer.setData(getResults(new SearchResult("uid=jdoe", null, atts)));
+
+        final SyncRule rule = getRule("jpegPhoto", "thumbnail");
+        rule.addTransform("data_url");
+        final SyncEndpointConfig config = getConfig();
+        config.getMapping().add(rule);
+
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(config, fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        // published as it is, without a picture store
+        final String url = fServer.getUser("jdoe").getSingleAttribute(
+            "thumbnailUrl");
+        assertNotNull(url);
+        assertTrue(url, url.startsWith("data:"));
+    }
+
+    @Test
+    public void testUnchangedCycle() throws Exception
+    {
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org"), getLdapUser("gone", "Gone", "Gone",
+            "Gone", "gone@example.org")));
+
+        final List<Integer> unparsed = new ArrayList<Integer>();
+        final ShindigGraphEndpoint endpoint = new ShindigGraphEndpoint(
+            getConfig(), fBuffer)
+        {
+            @Override
+            protected void postHook()
+            {
+                for (String name : getUserNames())
+                {
+                    unparsed.add(getUser(name).getUnparsedCount());
+                }
+                super.postHook();
+            }
+        };
+
+        // written, then checked once more in their new state
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+        assertEquals(0, endpoint.getWriteCount());
+
+        // unchanged users are only fingerprinted, not parsed
+        unparsed.clear();
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+        assertEquals(0, endpoint.getWriteCount());
+        assertEquals(2, unparsed.size());
+        for (int count : unparsed)
+        {
+            assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void testListValueReplaced() throws Exception
+    {
+        final JsonObject primary = new JsonObject();
+        primary.setSingleAttribute("value", "john@example.org");
+        primary.setSingleAttribute("primary", "true");
+        final List<JsonObject> emails = new ArrayList<JsonObject>();
+        emails.add(primary);
+        fServer.getUser("jdoe").setObjectList("emails", emails);
+
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org")));
+
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(getConfig(),
+            fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        // added next to the address only known to Shindig
+        List<JsonObject> list = fServer.getUser("jdoe").getObjectList(
+            "emails");
+        assertEquals(2, list.size());
+        assertEquals("john@example.org", list.get(0).getSingleAttribute(
+            "value"));
+        assertEquals("jdoe@example.org", list.get(1).getSingleAttribute(
+            "value"));
+
+        // the new address replaces the one set before, not the primary one
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "doe@example.org")));
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        list = fServer.getUser("jdoe").getObjectList("emails");
+        assertEquals(2, list.size());
+        assertEquals("john@example.org", list.get(0).getSingleAttribute(
+            "value"));
+        assertEquals("true", list.get(0).getSingleAttribute("primary"));
+        assertEquals("doe@example.org", list.get(1).getSingleAttribute(
+            "value"));
+    }
+
+    @Test
+    public void testFailedCalls() throws Exception
+    {
+        JsonObject user = new JsonObject();
+        user.setSingleAttribute("id", "mmiller");
+        user.setSingleAttribute("displayName", "Old Miller");
+        fServer.addUser(user);
+
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org"), getLdapUser("mmiller", "Mary Miller",
+            "Mary", "Miller", "mmiller@example.org"), getLdapUser("asmith",
+            "Anna Smith", "Anna", "Smith", "asmith@example.org")));
+
+        // the creation of asmith fails, the update of mmiller gets no result
+        fServer.setFailingUsers(Arrays.asList("asmith"));
+        fServer.setUnansweredUsers(Arrays.asList("mmiller"));
+
+        final SyncEndpointConfig config = getConfig();
+        config.getProperties().put("write-retries", "1");
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(config, fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        // only the failed calls were retried
+        assertEquals(2, endpoint.getWriteCount());
+        assertEquals(1, fServer.getCallCount("jdoe"));
+        assertEquals(1, fServer.getCallCount("gone"));
+        assertEquals(2, fServer.getCallCount("asmith"));
+        assertEquals(2, fServer.getCallCount("mmiller"));
+        assertNull(fServer.getUser("asmith"));
+        assertEquals("Old Miller", fServer.getUser("mmiller")
+            .getSingleAttribute("displayName"));
+
+        // failed users were not committed and are written again
+        fServer.setFailingUsers(new ArrayList<String>());
+        fServer.setUnansweredUsers(new ArrayList<String>());
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        assertEquals(3, endpoint.getWriteCount());
+        assertEquals(1, fServer.getCallCount("jdoe"));
+        assertEquals("Anna Smith", fServer.getUser("asmith")
+            .getSingleAttribute("displayName"));
+        assertEquals("Mary Miller", fServer.getUser("mmiller")
+            .getSingleAttribute("displayName"));
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception
+    {
+        fBuffer.setData(getResults(getLdapUser("jdoe", "John Doe", "John",
+            "Doe", "jdoe@example.org")));
+
+        // a single error instead of an array of results
+        fServer.setErrorResponses(true);
+
+        final SyncEndpointConfig config = getConfig();
+        config.getProperties().put("write-retries", "0");
+        ISyncEndpoint endpoint = new ShindigGraphEndpoint(config, fBuffer);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        assertEquals(0, endpoint.getWriteCount());
+        assertNotNull(fServer.getUser("gone"));
+
+        // nothing was committed, so the update and deletion are sent again
+        fServer.setErrorResponses(false);
+        endpoint.sync(new SyncRequest());
+        endpoint.commit();
+
+        assertEquals(2, endpoint.getWriteCount());
+        assertEquals("John Doe", fServer.getUser("jdoe").getSingleAttribute(
+            "displayName"));
+        assertNull(fServer.getUser("gone"));
+    }
+
+    private SyncEndpointConfig getConfig()
+    {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put("host", "http://localhost:" + fServer.getPort() + "/");
+        props.put("user", "admin");
+        props.put("fields", "id,displayName,name,emails");
+
+        final List<SyncRule> rules = new ArrayList<SyncRule>();
+        rules.add(getRule("cn", "displayName"));
+        rules.add(getRule("mail", "emails"));
+
+        final SyncEndpointConfig config = new SyncEndpointConfig();
+        config.setType("shindig-graph");
+        config.setName("shindig-test");
+        config.setProperties(props);
+        config.setMapping(rules);
+        config.setCreateOwnEntries(true);
+        config.setDeleteOwnEntries(true);
+
+        return config;
+    }
+
+    private SyncRule getRule(String ldapProp, String endPointProp)
+    {
+        final SyncRule rule = new SyncRule();
+        rule.setLdapProp(ldapProp);
+        rule.setEndPointProp(endPointProp);
+        rule.setDirection(SyncDirections.FROM_LDAP);
+        rule.setOperation(SyncOperations.COPY);
+
+        return rule;
+    }
+
+    private SearchResult getLdapUser(String uid, String cn, String givenName,
+        String sn, String mail)
+    {
+        final BasicAttributes atts = new BasicAttributes();
+        atts.put("uid", uid);
+        atts.put("cn", cn);
+        atts.put("givenName", givenName);
+        atts.put("sn", sn);
+        atts.put("mail", mail);
+
+        return new SearchResult("uid=" + uid, null, atts);
+    }
+
+    static NamingEnumeration<SearchResult> getResults(
+        SearchResult... results)
+    {
+        final Iterator<SearchResult> iter = Arrays.asList(results).iterator();
+
+        return new NamingEnumeration<SearchResult>()
+        {
+            @Override
+            public boolean hasMoreElements()
+            {
+                return iter.hasNext();
+            }
+
+            @Override
+            public SearchResult nextElement()
+            {
+                return iter.next();
+            }
+
+            @Override
+            public boolean hasMore()
+            {
+                return iter.hasNext();
+            }
+
+            @Override
+            public SearchResult next()
+            {
+                return iter.next();
+            }
+
+            @Override
+            public void close()
+            {
+                // nothing to release
+            }
+        };
+    }
+
+    /**
+     * Connector for a directory that is only read through the buffer's data.
+     */
+    static class ReadOnlyConnector implements ILdapConnector
+    {
+        @Override
+        public void connect()
+        {
+            // nothing to connect to
+        }
+
+        @Override
+        public void disconnect()
+        {
+            // nothing to disconnect from
+        }
+
+        @Override
+        public boolean isConnected()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isReadOnly()
+        {
+            return true;
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration nameQuery(String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration filterQuery(String filter)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public NamingEnumeration query(String name, String filter)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(String name, ModificationItem[] mods)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void create(String name, DirContext object)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(String name)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
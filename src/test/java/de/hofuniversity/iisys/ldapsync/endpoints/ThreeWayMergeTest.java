@@ -0,0 +1,212 @@
+package de.hofuniversity.iisys.ldapsync.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+
+import org.junit.Test;
+
+import de.hofuniversity.iisys.ldapsync.LdapBuffer;
+import de.hofuniversity.iisys.ldapsync.SyncRequest;
+import de.hofuniversity.iisys.ldapsync.config.SyncDirections;
+import de.hofuniversity.iisys.ldapsync.config.SyncEndpointConfig;
+import de.hofuniversity.iisys.ldapsync.config.SyncOperations;
+import de.hofuniversity.iisys.ldapsync.config.SyncRule;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUser;
+import de.hofuniversity.iisys.ldapsync.model.ILdapUserFactory;
+import de.hofuniversity.iisys.ldapsync.util.JsonObject;
+import de.hofuniversity.iisys.ldapsync.util.JsonPath;
+import de.hofuniversity.iisys.ldapsync.util.ShindigStandInServer;
+
+/**
+ * Tests for the set-wise three-way merge of multi-valued attributes, alone
+ * and across cycles against the Shindig stand-in server.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ThreeWayMergeTest
+{
+    @Test
+    public void testAdditionsOnBothSides()
+    {
+        Set<String> base = ThreeWayMerge.getPrints(values("a"));
+
+        assertEquals(values("a", "b", "c"), ThreeWayMerge.mergeSets(base,
+            values("a", "b"), values("a", "c")));
+    }
+
+    @Test
+    public void testRemovalOnOneSide()
+    {
+        Set<String> base = ThreeWayMerge.getPrints(values("a", "b"));
+
+        assertEquals(values("a"), ThreeWayMerge.mergeSets(base, values("a",
+            "b"), values("a")));
+        assertEquals(values("b"), ThreeWayMerge.mergeSets(base, values("b"),
+            values("a", "b")));
+    }
+
+    @Test
+    public void testConflictingChanges()
+    {
+        // one side removes a value, the other replaces it
+        Set<String> base = ThreeWayMerge.getPrints(values("a", "b"));
+
+        assertEquals(values("b", "c"), ThreeWayMerge.mergeSets(base,
+            values("b"), values("b", "c")));
+        assertEquals(values("c"), ThreeWayMerge.mergeSets(base, values("c"),
+            values("a")));
+    }
+
+    @Test
+    public void testNoBase()
+    {
+        // without a base, nothing counts as removed
+        Set<String> base = ThreeWayMerge.decode(null);
+
+        assertEquals(values("a", "b"), ThreeWayMerge.mergeSets(base,
+            values("a"), values("b", "a")));
+        assertEquals(values("a"), ThreeWayMerge.mergeSets(base, values("a"),
+            null));
+        assertTrue(ThreeWayMerge.mergeSets(base, null, null).isEmpty());
+    }
+
+    @Test
+    public void testEncoding()
+    {
+        Set<String> prints = ThreeWayMerge.getPrints(values("a", "b"));
+
+        assertEquals(prints, ThreeWayMerge.decode(ThreeWayMerge
+            .encode(prints)));
+        assertTrue(ThreeWayMerge.decode("").isEmpty());
+    }
+
+    @Test
+    public void testMergeAcrossCycles() throws Exception
+    {
+        final JsonPath emails = JsonPath.compile("emails[*].value");
+
+        final ShindigStandInServer server = new ShindigStandInServer(0, 2);
+        JsonObject user = new JsonObject();
+        user.setSingleAttribute("id", "jdoe");
+        emails.setValues(user, Arrays.asList("a@example.org",
+            "c@example.org"));
+        server.addUser(user);
+        server.start();
+
+        try
+        {
+            final LdapBuffer buffer = new LdapBuffer(
+                new ShindigGraphEndpointTest.ReadOnlyConnector(),
+                new ILdapUserFactory()
+                {
+                    @Override
+                    public ILdapUser createUser(String name)
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                });
+            final ISyncEndpoint endpoint = new ShindigGraphEndpoint(
+                getConfig(server), buffer);
+
+            // each side adds what only the other side has
+            buffer.setData(getResults("a@example.org", "b@example.org"));
+            endpoint.sync(new SyncRequest());
+            endpoint.commit();
+
+            final Set<Object> all = new HashSet<Object>(values(
+                "a@example.org", "b@example.org", "c@example.org"));
+            assertEquals(all, new HashSet<Object>(getMails(buffer)));
+            assertEquals(all, new HashSet<Object>(emails.get(server
+                .getUser("jdoe"))));
+
+            // nothing is removed once both sides hold the merged values
+            buffer.setData(getResults("a@example.org", "b@example.org",
+                "c@example.org"));
+            endpoint.sync(new SyncRequest());
+            endpoint.commit();
+
+            assertEquals(0, endpoint.getWriteCount());
+            assertEquals(all, new HashSet<Object>(getMails(buffer)));
+            assertEquals(all, new HashSet<Object>(emails.get(server
+                .getUser("jdoe"))));
+        } finally
+        {
+            server.stop();
+        }
+    }
+
+    private SyncEndpointConfig getConfig(ShindigStandInServer server)
+    {
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put("host", "http://localhost:" + server.getPort() + "/");
+        props.put("user", "admin");
+        props.put("fields", "id,emails");
+
+        final SyncRule rule = new SyncRule();
+        rule.setLdapProp("mail");
+        rule.setEndPointProp("emails");
+        rule.setDirection(SyncDirections.BOTH);
+        rule.setOperation(SyncOperations.ADD_TO_LIST);
+
+        final List<SyncRule> rules = new ArrayList<SyncRule>();
+        rules.add(rule);
+
+        final SyncEndpointConfig config = new SyncEndpointConfig();
+        config.setType("shindig-graph");
+        config.setName("merge-test");
+        config.setProperties(props);
+        config.setMapping(rules);
+
+        return config;
+    }
+
+    private NamingEnumeration<SearchResult> getResults(String... mails)
+    {
+        final Attribute mail = new BasicAttribute("mail");
+        for (String value : mails)
+        {
+            mail.add(value);
+        }
+
+        final BasicAttributes atts = new BasicAttributes();
+        atts.put("uid", "jdoe");
+        atts.put(mail);
+
+        return ShindigGraphEndpointTest.getResults(new SearchResult(
+            "uid=jdoe", null, atts));
+    }
+
+    private List<Object> getMails(LdapBuffer buffer) throws Exception
+    {
+        final List<Object> mails = new ArrayList<Object>();
+
+        final NamingEnumeration<?> vals = buffer.getCurrentAttribute("jdoe",
+            "mail").getAll();
+        while (vals.hasMore())
+        {
+            mails.add(vals.next());
+        }
+
+        return mails;
+    }
+
+    private List<Object> values(Object... values)
+    {
+        return Arrays.asList(values);
+    }
+}
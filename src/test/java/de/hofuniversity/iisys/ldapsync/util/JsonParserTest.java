@@ -0,0 +1,165 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the JSON parser, both for eagerly and lazily parsed objects.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class JsonParserTest
+{
+    private static final String JSON = "{\"s\":\"a\\\"b\\\\c\\n\\u00e4\\/\","
+        + "\"n\":-1.5e3,\"t\":true,\"f\":false,\"x\":null,\"e\":[],"
+        + "\"l\":[\"a\",null,\"b\"],\"nl\":[[1,2],\"c\"],"
+        + "\"o\":{\"p\":{\"q\":\"r\"}},\"ol\":[{\"k\":1},{\"k\":2}],"
+        + "\"eo\":{}}";
+
+    @Test
+    public void testEscapes()
+    {
+        for (JsonObject object : parseBoth(JSON))
+        {
+            assertEquals("a\"b\\c\n\u00e4/", object.getSingleAttribute("s"));
+        }
+    }
+
+    @Test
+    public void testLiterals()
+    {
+        for (JsonObject object : parseBoth(JSON))
+        {
+            assertEquals("-1.5e3", object.getSingleAttribute("n"));
+            assertEquals("true", object.getSingleAttribute("t"));
+            assertEquals("false", object.getSingleAttribute("f"));
+
+            // written without quotes again
+            String json = object.toString();
+            assertTrue(json, json.contains("\"n\":-1.5e3"));
+            assertTrue(json, json.contains("\"t\":true"));
+        }
+    }
+
+    @Test
+    public void testNulls()
+    {
+        for (JsonObject object : parseBoth(JSON))
+        {
+            assertNull(object.getSingleAttribute("x"));
+            assertEquals(Arrays.asList("a", null, "b"), object
+                .getListAttribute("l"));
+
+            // written as null again
+            String json = object.toString();
+            assertTrue(json, json.contains("\"x\":null"));
+            assertTrue(json, json.contains("\"l\":[\"a\",null,\"b\"]"));
+        }
+    }
+
+    @Test
+    public void testLists()
+    {
+        for (JsonObject object : parseBoth(JSON))
+        {
+            assertTrue(object.getListAttribute("e").isEmpty());
+
+            // nested lists are kept as they were read
+            assertNull(object.getListAttribute("nl"));
+            assertEquals("[[1,2],\"c\"]", object.getRawValue("nl"));
+            assertTrue(object.toString().contains("\"nl\":[[1,2],\"c\"]"));
+
+            List<JsonObject> list = object.getObjectList("ol");
+            assertEquals(2, list.size());
+            assertEquals("2", list.get(1).getSingleAttribute("k"));
+        }
+    }
+
+    @Test
+    public void testNestedObjects()
+    {
+        for (JsonObject object : parseBoth(JSON))
+        {
+            assertEquals("r", object.getSubObject("o").getSubObject("p")
+                .getSingleAttribute("q"));
+            assertEquals("{}", object.getSubObject("eo").toString());
+        }
+    }
+
+    @Test
+    public void testChangedSubObject()
+    {
+        for (JsonObject object : parseBoth("{\"id\":\"a\",\"o\":{\"c\":"
+            + "[[1],{\"k\":2}],\"n\":null,\"v\":\"x\"}}"))
+        {
+            object.getSubObject("o").setSingleAttribute("v", "y");
+
+            // sent as a whole, so nothing that was read may be missing
+            assertEquals("{\"o\":{\"c\":[[1],{\"k\":2}],\"n\":null,"
+                + "\"v\":\"y\"}}", new JsonParser(object
+                .toModifiedString(null)).parseObject().toCanonicalString());
+
+            // replacing the value drops the text
+            object.getSubObject("o").setListAttribute("c", Arrays.asList("z"));
+            assertNull(object.getSubObject("o").getRawValue("c"));
+            assertEquals(Arrays.asList("z"), object.getSubObject("o")
+                .getListAttribute("c"));
+        }
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        JsonObject object = new JsonParser(JSON).parseObject();
+        JsonObject copy = new JsonParser(object.toString()).parseObject();
+
+        assertEquals(object, copy);
+        assertEquals(object.toCanonicalString(), new JsonParser(JSON)
+            .parseLazy().toCanonicalString());
+    }
+
+    @Test
+    public void testLazyFingerprint()
+    {
+        JsonObject object = new JsonParser(JSON).parseLazy();
+        final int unparsed = object.getUnparsedCount();
+        final String print = object.getFingerprint();
+
+        // computed from the text without parsing
+        assertTrue(unparsed > 0);
+        assertEquals(unparsed, object.getUnparsedCount());
+        assertEquals(print, new JsonParser(JSON).parseLazy().getFingerprint());
+        assertFalse(print.equals(new JsonParser(JSON.replace("\"a\",null",
+            "\"d\",null")).parseLazy().getFingerprint()));
+
+        // changes are included
+        object.setSingleAttribute("s", "changed");
+        assertFalse(print.equals(object.getFingerprint()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingValue()
+    {
+        new JsonParser("{\"a\":}").parseObject();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnterminatedObject()
+    {
+        new JsonParser("{\"a\":\"b\"").parseObject();
+    }
+
+    private List<JsonObject> parseBoth(String json)
+    {
+        return Arrays.asList(new JsonParser(json).parseObject(),
+            new JsonParser(json).parseLazy());
+    }
+}
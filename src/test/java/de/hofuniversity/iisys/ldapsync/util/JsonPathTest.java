@@ -0,0 +1,142 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for compiled JSON paths.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class JsonPathTest
+{
+    @Test
+    public void testNestedValue()
+    {
+        JsonObject user = new JsonObject();
+        JsonPath path = JsonPath.compile("name.givenName");
+
+        assertNull(path.get(user));
+        path.setValue(user, "Jane");
+
+        assertEquals(Arrays.asList("Jane"), path.get(user));
+        assertEquals("Jane", user.getSubObject("name").getSingleAttribute(
+            "givenName"));
+    }
+
+    @Test
+    public void testIndexedValue()
+    {
+        JsonObject user = new JsonParser(
+            "{\"organizations\":[{\"title\":\"a\"},{\"title\":\"b\"}]}")
+            .parseObject();
+
+        assertEquals(Arrays.asList("b"), JsonPath.compile(
+            "organizations[1].title").get(user));
+        assertNull(JsonPath.compile("organizations[2].title").get(user));
+    }
+
+    @Test
+    public void testAllElements()
+    {
+        JsonObject user = new JsonParser(
+            "{\"emails\":[{\"value\":\"a\",\"type\":\"work\"},"
+                + "{\"value\":\"b\"}]}").parseObject();
+        JsonPath path = JsonPath.compile("emails[*].value");
+
+        assertEquals(Arrays.asList("a", "b"), path.get(user));
+
+        // kept elements keep their other fields
+        path.setValues(user, Arrays.asList("a", "c"));
+        assertEquals(Arrays.asList("a", "c"), path.get(user));
+        assertEquals("work", user.getObjectList("emails").get(0)
+            .getSingleAttribute("type"));
+
+        path.setValue(user, "d");
+        assertEquals(Arrays.asList("a", "c", "d"), path.get(user));
+    }
+
+    @Test
+    public void testSingleValueKeepsElements()
+    {
+        JsonObject user = new JsonParser(
+            "{\"emails\":[{\"value\":\"a\",\"type\":\"work\"},"
+                + "{\"value\":\"b\"}]}").parseObject();
+        JsonPath path = JsonPath.compile("emails[*].value");
+
+        // present values don't change anything
+        path.setValue(user, "b");
+        assertEquals(Arrays.asList("a", "b"), path.get(user));
+        assertFalse(user.isModified());
+
+        // without a previous value, new values are added
+        path.setValue(user, "c");
+        assertEquals(Arrays.asList("a", "b", "c"), path.get(user));
+        assertEquals("work", user.getObjectList("emails").get(0)
+            .getSingleAttribute("type"));
+        assertTrue(user.isModified());
+
+        JsonObject empty = new JsonObject();
+        path.setValue(empty, "d");
+        assertEquals(Arrays.asList("d"), path.get(empty));
+    }
+
+    @Test
+    public void testSingleValueReplacesPrevious()
+    {
+        JsonObject user = new JsonParser(
+            "{\"emails\":[{\"value\":\"b\",\"primary\":true},"
+                + "{\"value\":\"a\",\"type\":\"work\"}]}").parseObject();
+        JsonPath path = JsonPath.compile("emails[*].value");
+
+        // only the element holding the previous value changes
+        path.setValue(user, "c", "a");
+        assertEquals(Arrays.asList("b", "c"), path.get(user));
+        assertEquals("true", user.getObjectList("emails").get(0)
+            .getSingleAttribute("primary"));
+        assertEquals("work", user.getObjectList("emails").get(1)
+            .getSingleAttribute("type"));
+        assertTrue(user.isModified());
+
+        // previous values that are gone are not replaced
+        path.setValue(user, "d", "a");
+        assertEquals(Arrays.asList("b", "c", "d"), path.get(user));
+    }
+
+    @Test
+    public void testRemove()
+    {
+        JsonObject user = new JsonObject();
+        JsonPath path = JsonPath.compile("emails[*].value");
+        path.setValues(user, Arrays.asList("a", "b"));
+
+        assertTrue(path.remove(user));
+        assertNull(path.get(user));
+        assertFalse(path.remove(user));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedIndex()
+    {
+        JsonPath.compile("emails[x].value");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIndexAtEnd()
+    {
+        JsonPath.compile("emails[0]");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testEmptyPath()
+    {
+        JsonPath.compile("");
+    }
+}
@@ -0,0 +1,723 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the Shindig JSON-RPC interface used by the Shindig graph end
+ * point, keeping users in memory. It answers "user.getAll" requests with
+ * pagination and entity tags as well as batches of "user.create",
+ * "people.update" and "user.delete" calls. Latency, HTTP errors and errors of
+ * single calls can be injected, either at random or for given users, whose
+ * calls can also be left without a result. Batches can be answered with a
+ * single error instead of their results. Request metrics are available under
+ * "/metrics", so that the end point can be benchmarked without an actual
+ * Shindig installation. Requested fields are ignored, users are always
+ * returned as a whole. Updates replace the top-level fields they contain.
+ * It is only part of the test sources and not shipped with the tool.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class ShindigStandInServer
+{
+    private static final String GET_ALL_METHOD = "user.getAll";
+    private static final String CREATE_METHOD = "user.create";
+    private static final String UPDATE_METHOD = "people.update";
+    private static final String DELETE_METHOD = "user.delete";
+
+    private static final String ID_ATT = "id";
+    private static final String PARAMS_PROP = "params";
+    private static final String USER_ID_PROP = "userId";
+    private static final String PERSON_PROP = "person";
+
+    private static final String GZIP = "gzip";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final HttpServer fServer;
+    private final ExecutorService fExecutor;
+
+    private final ConcurrentSkipListMap<String, JsonObject> fUsers;
+    private final AtomicLong fVersion;
+
+    private final Map<String, AtomicLong> fMethodCounts, fUserCounts;
+    private final AtomicLong fRequests, fNotModified, fHttpErrors, fCallErrors;
+    private final AtomicLong fBytesIn, fBytesOut;
+
+    private volatile long fLatency;
+    private volatile double fErrorRate, fHttpErrorRate;
+    private volatile int fMaxPageSize;
+    private volatile boolean fErrorResponses;
+    private volatile Set<String> fFailingUsers, fUnansweredUsers;
+
+    /**
+     * Starts the stand-in with the given arguments, given as "name=value":
+     * port (8080), users to create (100), threads (8), latency in
+     * milliseconds (0), error-rate and http-error-rate as fractions of calls
+     * and requests (0) and max-page for the maximum number of users per page
+     * (0 for no limit). Metrics are printed when the process exits.
+     * 
+     * @param args
+     *            arguments as described
+     * @throws Exception
+     *             if the server can't be started
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final Map<String, String> params = new HashMap<String, String>();
+        for (String arg : args)
+        {
+            int equals = arg.indexOf('=');
+            if (equals > 0)
+            {
+                params.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+        }
+
+        final ShindigStandInServer server = new ShindigStandInServer(
+            getInt(params, "port", 8080), getInt(params, "threads", 8));
+        server.setLatency(getInt(params, "latency", 0));
+        server.setErrorRate(getDouble(params, "error-rate", 0));
+        server.setHttpErrorRate(getDouble(params, "http-error-rate", 0));
+        server.setMaxPageSize(getInt(params, "max-page", 0));
+
+        final int users = getInt(params, "users", 100);
+        for (int i = 0; i < users; ++i)
+        {
+            JsonObject user = new JsonObject();
+            user.setSingleAttribute(ID_ATT, "user" + i);
+            user.setSingleAttribute("displayName", "User " + i);
+            user.setSingleAttribute("name.formatted", "User " + i);
+            user.setSingleAttribute("name.givenName", "User");
+            user.setSingleAttribute("name.familyName", String.valueOf(i));
+            server.addUser(user);
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            public void run()
+            {
+                System.out.println(server.getMetrics());
+            }
+        });
+
+        server.start();
+        System.out.println("Shindig stand-in serving " + users
+            + " users on port " + getInt(params, "port", 8080));
+    }
+
+    private static int getInt(Map<String, String> params, String name,
+        int defValue)
+    {
+        String value = params.get(name);
+        if (value == null)
+        {
+            return defValue;
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    private static double getDouble(Map<String, String> params, String name,
+        double defValue)
+    {
+        String value = params.get(name);
+        if (value == null)
+        {
+            return defValue;
+        }
+
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Creates a stand-in listening on the given port, which is started by
+     * calling {@link #start()}.
+     * 
+     * @param port
+     *            port to listen on, 0 for any free port
+     * @param threads
+     *            number of threads handling requests
+     * @throws IOException
+     *             if the port can't be bound
+     */
+    public ShindigStandInServer(int port, int threads) throws IOException
+    {
+        fServer = HttpServer.create(new InetSocketAddress(port), 0);
+        fExecutor = Executors.newFixedThreadPool(Math.max(1, threads));
+        fServer.setExecutor(fExecutor);
+
+        fUsers = new ConcurrentSkipListMap<String, JsonObject>();
+        fVersion = new AtomicLong();
+
+        fMethodCounts = new ConcurrentHashMap<String, AtomicLong>();
+        fUserCounts = new ConcurrentHashMap<String, AtomicLong>();
+        fFailingUsers = Collections.emptySet();
+        fUnansweredUsers = Collections.emptySet();
+        fRequests = new AtomicLong();
+        fNotModified = new AtomicLong();
+        fHttpErrors = new AtomicLong();
+        fCallErrors = new AtomicLong();
+        fBytesIn = new AtomicLong();
+        fBytesOut = new AtomicLong();
+
+        fServer.createContext("/rpc", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                handleRpc(exchange);
+            }
+        });
+        fServer.createContext("/metrics", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                respond(exchange, 200, getMetrics());
+            }
+        });
+    }
+
+    /**
+     * Starts answering requests.
+     */
+    public void start()
+    {
+        fServer.start();
+    }
+
+    /**
+     * Stops answering requests, waiting at most a second for running ones.
+     */
+    public void stop()
+    {
+        fServer.stop(1);
+        fExecutor.shutdownNow();
+    }
+
+    /**
+     * @return port the stand-in listens on
+     */
+    public int getPort()
+    {
+        return fServer.getAddress().getPort();
+    }
+
+    /**
+     * Adds or replaces a user, which needs an ID.
+     * 
+     * @param user
+     *            user to add
+     */
+    public void addUser(JsonObject user)
+    {
+        fUsers.put(user.getSingleAttribute(ID_ATT), user);
+        fVersion.incrementAndGet();
+    }
+
+    /**
+     * @param name
+     *            ID of the user
+     * @return user with the given ID or null
+     */
+    public JsonObject getUser(String name)
+    {
+        return fUsers.get(name);
+    }
+
+    /**
+     * @return number of users stored
+     */
+    public int getUserCount()
+    {
+        return fUsers.size();
+    }
+
+    /**
+     * @param latency
+     *            time in milliseconds each request is delayed by
+     */
+    public void setLatency(long latency)
+    {
+        fLatency = latency;
+    }
+
+    /**
+     * @param errorRate
+     *            fraction of calls in batches that fail
+     */
+    public void setErrorRate(double errorRate)
+    {
+        fErrorRate = errorRate;
+    }
+
+    /**
+     * @param httpErrorRate
+     *            fraction of requests that fail as a whole
+     */
+    public void setHttpErrorRate(double httpErrorRate)
+    {
+        fHttpErrorRate = httpErrorRate;
+    }
+
+    /**
+     * @param users
+     *            IDs of users whose calls in batches fail
+     */
+    public void setFailingUsers(Collection<String> users)
+    {
+        fFailingUsers = new HashSet<String>(users);
+    }
+
+    /**
+     * @param users
+     *            IDs of users whose calls in batches are neither applied nor
+     *            answered, as if the response had been cut off
+     */
+    public void setUnansweredUsers(Collection<String> users)
+    {
+        fUnansweredUsers = new HashSet<String>(users);
+    }
+
+    /**
+     * @param errorResponses
+     *            whether batches are answered with a single error object
+     *            instead of an array of results, without applying any call
+     */
+    public void setErrorResponses(boolean errorResponses)
+    {
+        fErrorResponses = errorResponses;
+    }
+
+    /**
+     * @param name
+     *            ID of the user
+     * @return number of calls in batches received for the user
+     */
+    public long getCallCount(String name)
+    {
+        final AtomicLong count = fUserCounts.get(name);
+
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * @param maxPageSize
+     *            maximum number of users per page, 0 for no limit
+     */
+    public void setMaxPageSize(int maxPageSize)
+    {
+        fMaxPageSize = maxPageSize;
+    }
+
+    /**
+     * Returns the metrics collected so far as a JSON object.
+     * 
+     * @return metrics as JSON
+     */
+    public String getMetrics()
+    {
+        final JsonObject metrics = new JsonObject();
+        metrics.setSingleAttribute("requests", fRequests.toString());
+        metrics.setSingleAttribute("notModified", fNotModified.toString());
+        metrics.setSingleAttribute("httpErrors", fHttpErrors.toString());
+        metrics.setSingleAttribute("callErrors", fCallErrors.toString());
+        metrics.setSingleAttribute("bytesIn", fBytesIn.toString());
+        metrics.setSingleAttribute("bytesOut", fBytesOut.toString());
+        metrics.setSingleAttribute("users", String.valueOf(fUsers.size()));
+
+        for (Entry<String, AtomicLong> countE : fMethodCounts.entrySet())
+        {
+            metrics.setSingleAttribute("calls." + countE.getKey(), countE
+                .getValue().toString());
+        }
+
+        return metrics.toString();
+    }
+
+    private void handleRpc(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            fRequests.incrementAndGet();
+
+            if (fLatency > 0)
+            {
+                Thread.sleep(fLatency);
+            }
+
+            if (fHttpErrorRate > 0
+                && ThreadLocalRandom.current().nextDouble() < fHttpErrorRate)
+            {
+                fHttpErrors.incrementAndGet();
+                readBody(exchange);
+                respond(exchange, 503, "");
+                return;
+            }
+
+            if ("POST".equals(exchange.getRequestMethod()))
+            {
+                handleBatch(exchange);
+            } else
+            {
+                handleGetAll(exchange);
+            }
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+            fHttpErrors.incrementAndGet();
+            respond(exchange, 500, "");
+        } finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void handleGetAll(HttpExchange exchange) throws IOException
+    {
+        final Map<String, String> query = getQuery(exchange);
+
+        if (!GET_ALL_METHOD.equals(query.get("method")))
+        {
+            respond(exchange, 400, "");
+            return;
+        }
+        count(fMethodCounts, GET_ALL_METHOD);
+
+        // any change invalidates all pages
+        final String etag = "\"" + fVersion.get() + "\"";
+        if (etag.equals(exchange.getRequestHeaders().getFirst(
+            "If-None-Match")))
+        {
+            fNotModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        int start = parseInt(query.get("startIndex"), 0);
+        int count = parseInt(query.get("count"), 0);
+        if (fMaxPageSize > 0 && (count <= 0 || count > fMaxPageSize))
+        {
+            count = fMaxPageSize;
+        }
+
+        final StringBuilder buffer = new StringBuilder();
+        buffer.append("{\"result\":{\"startIndex\":" + start);
+        buffer.append(",\"totalResults\":" + fUsers.size());
+        buffer.append(",\"list\":[");
+
+        int index = 0, listed = 0;
+        for (JsonObject user : fUsers.values())
+        {
+            if (index++ < start)
+            {
+                continue;
+            }
+            if (count > 0 && listed >= count)
+            {
+                break;
+            }
+
+            if (listed++ > 0)
+            {
+                buffer.append(',');
+            }
+            synchronized (user)
+            {
+                buffer.append(user.toString());
+            }
+        }
+        buffer.append("]}}");
+
+        exchange.getResponseHeaders().set("ETag", etag);
+        respond(exchange, 200, buffer.toString());
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException
+    {
+        final byte[] body = readBody(exchange);
+
+        if (fErrorResponses)
+        {
+            fCallErrors.incrementAndGet();
+            respond(exchange, 200, "{\"error\":{\"code\":500,"
+                + "\"message\":\"injected error\"}}");
+            return;
+        }
+
+        final JsonStreamReader reader = new JsonStreamReader(
+            new InputStreamReader(new ByteArrayInputStream(body),
+                "UTF-8"));
+
+        final List<String> results = new ArrayList<String>();
+        try
+        {
+            JsonObject call = reader.next();
+            String result = null;
+            while (call != null)
+            {
+                result = handleCall(call);
+                if (result != null)
+                {
+                    results.add(result);
+                }
+                call = reader.next();
+            }
+        } finally
+        {
+            reader.close();
+        }
+
+        final StringBuilder buffer = new StringBuilder("[");
+        for (String result : results)
+        {
+            if (buffer.length() > 1)
+            {
+                buffer.append(',');
+            }
+            buffer.append(result);
+        }
+        buffer.append(']');
+
+        respond(exchange, 200, buffer.toString());
+    }
+
+    private String handleCall(JsonObject call)
+    {
+        final String id = call.getSingleAttribute(ID_ATT);
+        final String method = call.getSingleAttribute("method");
+        count(fMethodCounts, method);
+
+        if (fErrorRate > 0
+            && ThreadLocalRandom.current().nextDouble() < fErrorRate)
+        {
+            return getError(id, 500, "injected error");
+        }
+
+        final JsonObject params = call.getSubObject(PARAMS_PROP);
+        if (params == null || params.getSingleAttribute(USER_ID_PROP) == null)
+        {
+            return getError(id, 400, "missing user ID");
+        }
+        final String userId = params.getSingleAttribute(USER_ID_PROP);
+        final JsonObject person = params.getSubObject(PERSON_PROP);
+        count(fUserCounts, userId);
+
+        if (fUnansweredUsers.contains(userId))
+        {
+            return null;
+        } else if (fFailingUsers.contains(userId))
+        {
+            return getError(id, 500, "injected error for " + userId);
+        }
+
+        JsonObject user = null;
+        if (CREATE_METHOD.equals(method))
+        {
+            user = new JsonObject();
+            user.setSingleAttribute(ID_ATT, userId);
+            if (fUsers.putIfAbsent(userId, user) != null)
+            {
+                return getError(id, 409, "user exists: " + userId);
+            }
+        } else if (UPDATE_METHOD.equals(method))
+        {
+            user = fUsers.get(userId);
+        } else if (DELETE_METHOD.equals(method))
+        {
+            user = fUsers.remove(userId);
+        } else
+        {
+            return getError(id, 501, "unknown method: " + method);
+        }
+
+        if (user == null)
+        {
+            return getError(id, 404, "no such user: " + userId);
+        }
+
+        String result = "{}";
+        if (!DELETE_METHOD.equals(method))
+        {
+            synchronized (user)
+            {
+                if (person != null)
+                {
+                    merge(user, person);
+                }
+                result = user.toString();
+            }
+        }
+        fVersion.incrementAndGet();
+
+        return "{\"id\":\"" + id + "\",\"result\":" + result + "}";
+    }
+
+    private void merge(JsonObject user, JsonObject person)
+    {
+        for (String name : person.getAttributeNames())
+        {
+            if (ID_ATT.equals(name))
+            {
+                continue;
+            }
+
+            JsonObject sub = person.getSubObject(name);
+            if (sub != null)
+            {
+                user.setSubObject(name, sub);
+            } else if (person.getSingleAttribute(name) != null)
+            {
+                user.setSingleAttribute(name, person.getSingleAttribute(name));
+            } else if (person.getListAttribute(name) != null)
+            {
+                user.setListAttribute(name, person.getListAttribute(name));
+            } else if (person.getObjectList(name) != null)
+            {
+                user.setObjectList(name, person.getObjectList(name));
+            } else if (person.getRawValue(name) != null)
+            {
+                user.removeAttribute(name);
+                user.putRawValue(name, person.getRawValue(name));
+            } else
+            {
+                // set to null
+                user.removeAttribute(name);
+            }
+        }
+    }
+
+    private String getError(String id, int code, String message)
+    {
+        fCallErrors.incrementAndGet();
+
+        return "{\"id\":\"" + id + "\",\"error\":{\"code\":" + code
+            + ",\"message\":\"" + message + "\"}}";
+    }
+
+    private void count(Map<String, AtomicLong> counts, String key)
+    {
+        AtomicLong count = counts.get(key);
+        if (count == null)
+        {
+            counts.putIfAbsent(key, new AtomicLong());
+            count = counts.get(key);
+        }
+        count.incrementAndGet();
+    }
+
+    private Map<String, String> getQuery(HttpExchange exchange)
+        throws IOException
+    {
+        final Map<String, String> query = new HashMap<String, String>();
+
+        final String raw = exchange.getRequestURI().getRawQuery();
+        if (raw != null)
+        {
+            for (String param : raw.split("&"))
+            {
+                int equals = param.indexOf('=');
+                if (equals > 0)
+                {
+                    query.put(URLDecoder.decode(param.substring(0, equals),
+                        "UTF-8"), URLDecoder.decode(param
+                        .substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+
+        return query;
+    }
+
+    private int parseInt(String value, int defValue)
+    {
+        if (value == null || value.isEmpty())
+        {
+            return defValue;
+        }
+
+        return Integer.parseInt(value);
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        if (GZIP.equalsIgnoreCase(exchange.getRequestHeaders().getFirst(
+            "Content-Encoding")))
+        {
+            in = new GZIPInputStream(in);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read = in.read(buffer);
+        while (read != -1)
+        {
+            out.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        in.close();
+
+        fBytesIn.addAndGet(out.size());
+        return out.toByteArray();
+    }
+
+    private void respond(HttpExchange exchange, int code, String body)
+        throws IOException
+    {
+        byte[] data = body.getBytes("UTF-8");
+
+        final String accepted = exchange.getRequestHeaders().getFirst(
+            "Accept-Encoding");
+        if (data.length > 0 && accepted != null && accepted.contains(GZIP))
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(data);
+            gzip.close();
+
+            data = bytes.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", GZIP);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (data.length == 0)
+        {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(code, data.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(data);
+        out.close();
+
+        fBytesOut.addAndGet(data.length);
+    }
+}
@@ -0,0 +1,47 @@
+package de.hofuniversity.iisys.ldapsync.util;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the token bucket's rate limiting.
+ * 
+ * @author fholzschuher2
+ * 
+ */
+public class TokenBucketTest
+{
+    @Test
+    public void testFullBucket() throws Exception
+    {
+        TokenBucket bucket = new TokenBucket(100);
+
+        long start = System.nanoTime();
+        bucket.acquire(100);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("waited " + elapsed + "ms", elapsed < 50);
+    }
+
+    @Test
+    public void testDebt() throws Exception
+    {
+        TokenBucket bucket = new TokenBucket(100);
+        bucket.acquire(100);
+
+        // ten tokens take a tenth of a second to refill
+        long start = System.nanoTime();
+        bucket.acquire(10);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("waited " + elapsed + "ms", elapsed >= 80);
+        assertTrue("waited " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate()
+    {
+        new TokenBucket(0);
+    }
+}